@@ -0,0 +1,16 @@
+#!/bin/bash
+set -eu
+
+# 初回起動時にプライマリのベースバックアップを取り、ホットスタンバイとして起動する
+if [ ! -s "$PGDATA/PG_VERSION" ]; then
+  mkdir -p "$PGDATA"
+  chown postgres:postgres "$PGDATA"
+  chmod 700 "$PGDATA"
+  until gosu postgres pg_basebackup -h database -p 5432 -U "$POSTGRES_USER" -D "$PGDATA" -R -X stream; do
+    echo "waiting for primary..."
+    rm -rf "${PGDATA:?}"/*
+    sleep 1
+  done
+fi
+
+exec gosu postgres postgres -c hot_standby=on
@@ -0,0 +1,147 @@
+package org.tky.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 各サービスのトランザクション構成毎のスループットとアロケーション(-prof gc)を計測する。
+// createUser と createUserAndError のように対になるベンチマークを比べると、commitとrollbackのコストの差が分かる。
+// benchmark.datasource.url が指定されていなければ、Testcontainersで起動したPostgreSQLを使う。
+// 指定する場合は開発用(docker-composeの25432)ではなく、ベンチマーク専用のデータベースにすること。
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionScenarioBenchmark {
+
+    // 既存のデータがあるDBを指定されても、消すのはベンチマークで作った行だけにする
+    private static final String NAME = "jmh-transaction-scenario";
+    private static final String DELETE_CREATED_SQL = """
+            with deleted as (delete from users where name like ? returning id)
+            delete from outbox where aggregate_type = 'user' and aggregate_id in (select id from deleted)""";
+
+    private PostgreSQLContainer<?> postgres;
+    private ConfigurableApplicationContext context;
+    private TransactionalUserService transactionalUserService;
+    private NonTransactionalUserService nonTransactionalUserService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var url = System.getProperty("benchmark.datasource.url");
+        var username = "postgres";
+        var password = "password";
+        if (url == null) {
+            postgres = new PostgreSQLContainer<>("postgres:15.1");
+            postgres.start();
+            url = postgres.getJdbcUrl() + "&reWriteBatchedInserts=true";
+            username = postgres.getUsername();
+            password = postgres.getPassword();
+        }
+        context = new SpringApplicationBuilder(DemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties("spring.datasource.url=" + url,
+                        "spring.datasource.username=" + username,
+                        "spring.datasource.password=" + password,
+                        "demo.outbox.relay.enabled=false",
+                        "logging.level.org.tky.demo=OFF")
+                .run();
+        transactionalUserService = context.getBean(TransactionalUserService.class);
+        nonTransactionalUserService = context.getBean(NonTransactionalUserService.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCreatedUsers() {
+        context.getBean(JdbcTemplate.class).update(DELETE_CREATED_SQL, NAME + "%");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @Benchmark
+    public User createUser() {
+        return transactionalUserService.createUser(NAME);
+    }
+
+    @Benchmark
+    public Object createUserAndError() {
+        try {
+            return transactionalUserService.createUserAndError(NAME);
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public List<User> createCoupleOfUsers() {
+        return transactionalUserService.createCoupleOfUsers(NAME + "_1", NAME + "_2");
+    }
+
+    @Benchmark
+    public Object createCoupleOfUsersAndErrorAtLast() {
+        try {
+            return transactionalUserService.createCoupleOfUsersAndErrorAtLast(NAME + "_1", NAME + "_2");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object createCoupleOfUsersAndErrorNextService() {
+        try {
+            return transactionalUserService.createCoupleOfUsersAndErrorNextService(NAME + "_1", NAME + "_2");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object createCoupleOfUsersAndErrorNextServiceAndCatch() {
+        try {
+            return transactionalUserService.createCoupleOfUsersAndErrorNextServiceAndCatch(NAME + "_1", NAME + "_2");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object createCoupleOfUsersAndErrorFromNonTransactionalService() {
+        try {
+            return transactionalUserService.createCoupleOfUsersAndErrorFromNonTransactionalService(NAME + "_1", NAME + "_2");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public User nonTransactionalCreateUser() {
+        return nonTransactionalUserService.createUser(NAME);
+    }
+
+    @Benchmark
+    public Object nonTransactionalCreateUserAndError() {
+        try {
+            return nonTransactionalUserService.createUserAndError(NAME);
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
@@ -10,9 +10,11 @@ import org.springframework.stereotype.Service;
 public class AnotherTransactionalService {
 
     private final UserRepository userRepository;
+    private final UserCache userCache;
 
-    public AnotherTransactionalService(UserRepository userRepository) {
+    public AnotherTransactionalService(UserRepository userRepository, UserCache userCache) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
     }
 
     public User createUser(String name) {
@@ -20,6 +22,7 @@ public class AnotherTransactionalService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         log.info("end another service");
         return user;
@@ -30,6 +33,7 @@ public class AnotherTransactionalService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         if (true) {
             throw new RuntimeException("rollback test");
@@ -0,0 +1,145 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+// エンドポイント毎に同時実行数を制限し、上限に達している場合はコネクションプールやスレッドで待たせずにすぐ429を返す。
+// IdempotencyKeyFilterのようにリクエストの前に接続を取得するフィルタより先に判定するため、DispatcherServletではなくフィルタで、
+// 対応するハンドラを先に引いてエンドポイントを決める。
+// 非同期のリクエストでは、許可は最初のdispatchで取得し、非同期処理が完了した時に返す。
+@Component
+@Order(BulkheadFilter.ORDER)
+public class BulkheadFilter extends OncePerRequestFilter {
+
+    static final int ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final BulkheadProperties properties;
+    private final MeterRegistry meterRegistry;
+    // フィルタはMVCの設定より先に作られるので、ハンドラのマッピングは最初のリクエストで取得する
+    private final ObjectProvider<RequestMappingHandlerMapping> handlerMapping;
+    private final Map<Method, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    public BulkheadFilter(BulkheadProperties properties, MeterRegistry meterRegistry,
+                          @Qualifier("requestMappingHandlerMapping") ObjectProvider<RequestMappingHandlerMapping> handlerMapping) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.handlerMapping = handlerMapping;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !properties.enabled() || !PATH_MATCHER.match("/users/**", request.getRequestURI());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        var bulkhead = bulkhead(request);
+        if (bulkhead == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        if (!bulkhead.permits().tryAcquire()) {
+            bulkhead.rejected().increment();
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseOnComplete(bulkhead));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                bulkhead.permits().release();
+            }
+        }
+    }
+
+    // マッチするハンドラがない場合(404や405になるリクエスト)は制限しない
+    private Bulkhead bulkhead(HttpServletRequest request) {
+        Object handler;
+        try {
+            ServletRequestPathUtils.parseAndCache(request);
+            var chain = handlerMapping.getObject().getHandler(request);
+            handler = chain == null ? null : chain.getHandler();
+        } catch (Exception e) {
+            return null;
+        }
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return null;
+        }
+        return bulkheads.computeIfAbsent(handlerMethod.getMethod(), method -> register(request));
+    }
+
+    private Bulkhead register(HttpServletRequest request) {
+        var pattern = String.valueOf(request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE));
+        int limit = properties.limits().getOrDefault(pattern,
+                HttpMethod.GET.matches(request.getMethod()) ? properties.readLimit() : properties.writeLimit());
+        var endpoint = request.getMethod() + " " + pattern;
+        var permits = new Semaphore(limit);
+        Gauge.builder("demo.bulkhead.in.flight", permits, p -> limit - p.availablePermits())
+                .description("Requests currently holding a permit of the endpoint's bulkhead")
+                .tags("endpoint", endpoint, "limit", Integer.toString(limit))
+                .register(meterRegistry);
+        var rejected = Counter.builder("demo.bulkhead.rejected")
+                .description("Requests rejected with 429 because the endpoint's bulkhead was full")
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+        return new Bulkhead(permits, rejected);
+    }
+
+    private record Bulkhead(Semaphore permits, Counter rejected) {
+    }
+
+    // タイムアウトやエラーの場合も最後にonCompleteが呼ばれる
+    private record ReleaseOnComplete(Bulkhead bulkhead) implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            bulkhead.permits().release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.tky.demo;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.Map;
+
+// limitsのキーはエンドポイントのパターン(/users/{id}など)。指定がなければGETはreadLimit、それ以外はwriteLimit
+@ConfigurationProperties("demo.bulkhead")
+public record BulkheadProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("200") int readLimit,
+        @DefaultValue("20") int writeLimit,
+        @DefaultValue Map<String, Integer> limits) {
+}
@@ -0,0 +1,22 @@
+package org.tky.demo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@EnableCaching
+@Configuration
+public class CacheConfig {
+
+    // put/evictはトランザクションのcommit後に反映され、ロールバック時は破棄される
+    @Bean
+    public CacheManager cacheManager(@Value("${demo.cache.users.spec}") String userCacheSpec) {
+        var caffeineCacheManager = new CaffeineCacheManager(UserCache.NAME);
+        caffeineCacheManager.setCacheSpecification(userCacheSpec);
+        return new TransactionAwareCacheManagerProxy(caffeineCacheManager);
+    }
+}
@@ -0,0 +1,11 @@
+package org.tky.demo;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+// 1つのトランザクションで複数のshardのユーザーを扱おうとした場合。shardを跨ぐ分散トランザクションはサポートしない
+public class CrossShardTransactionException extends InvalidDataAccessApiUsageException {
+
+    public CrossShardTransactionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,133 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+@Configuration
+@EnableScheduling
+@EnableConfigurationProperties({DataSourceProperties.class, ReplicaProperties.class, ShardingProperties.class})
+public class DataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        var dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    // 書き込みでprimaryのプールが枯渇しても読み取りが止まらないよう、readOnlyなトランザクションはプライマリへの別のプールを使う
+    @Bean
+    @ConfigurationProperties("demo.datasource.read")
+    public HikariDataSource readDataSource(DataSourceProperties properties) {
+        var dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("read");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaDataSource(DataSourceProperties properties, ReplicaProperties replicaProperties, HikariDataSource readDataSource,
+                                                      ObjectProvider<MeterRegistry> meterRegistry) {
+        var replicas = IntStream.range(0, replicaProperties.urls().size())
+                .mapToObj(i -> {
+                    var replica = new HikariDataSource();
+                    replica.setPoolName("replica-" + i);
+                    replica.setJdbcUrl(replicaProperties.urls().get(i));
+                    replica.setUsername(replicaProperties.username() != null ? replicaProperties.username() : properties.determineUsername());
+                    replica.setPassword(replicaProperties.password() != null ? replicaProperties.password() : properties.determinePassword());
+                    replica.setMaximumPoolSize(replicaProperties.maximumPoolSize());
+                    replica.setConnectionTimeout(replicaProperties.connectionTimeout().toMillis());
+                    replica.setReadOnly(true);
+                    // 起動時にレプリカがダウンしていてもアプリケーションは起動させ、ヘルスチェックに任せる
+                    replica.setInitializationFailTimeout(-1);
+                    // Beanではないプールなので、hikaricp.*のメトリクスは自前で登録する
+                    meterRegistry.ifAvailable(replica::setMetricRegistry);
+                    return replica;
+                })
+                .toList();
+        return new ReplicaRoutingDataSource(replicas, readDataSource);
+    }
+
+    @Bean
+    public ShardPools shardPools(DataSourceProperties properties, ShardingProperties shardingProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+        var pools = IntStream.range(0, shardingProperties.shards().size())
+                .mapToObj(i -> {
+                    var shardProperties = shardingProperties.shards().get(i);
+                    var shard = new HikariDataSource();
+                    shard.setPoolName("shard-" + (i + 1));
+                    shard.setJdbcUrl(shardProperties.url());
+                    shard.setUsername(shardProperties.username() != null ? shardProperties.username() : properties.determineUsername());
+                    shard.setPassword(shardProperties.password() != null ? shardProperties.password() : properties.determinePassword());
+                    shard.setMaximumPoolSize(shardProperties.maximumPoolSize());
+                    shard.setConnectionTimeout(shardProperties.connectionTimeout().toMillis());
+                    meterRegistry.ifAvailable(shard::setMetricRegistry);
+                    return shard;
+                })
+                .toList();
+        return new ShardPools(pools);
+    }
+
+    // Hibernateが生成するShardedIdGeneratorにshard数を渡す
+    @Bean
+    public HibernatePropertiesCustomizer shardCountHibernateProperties(ShardPools shardPools) {
+        return properties -> properties.put(ShardedIdGenerator.SHARD_COUNT_SETTING, shardPools.shardCount());
+    }
+
+    // 実際の接続取得をトランザクション開始後まで遅らせ、readOnlyなトランザクションであればレプリカ(なければreadのプール)に接続する。
+    // シャーディングする場合は、その下でトランザクションのshardに振り分ける(shard 1以降はレプリカ・readのプールを持たない)
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaDataSource, ShardPools shardPools) {
+        if (shardPools.isEmpty()) {
+            var dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+            dataSource.setReadOnlyDataSource(replicaDataSource);
+            return dataSource;
+        }
+        var dataSource = new LazyConnectionDataSourceProxy(new ShardRoutingDataSource(Stream.concat(Stream.of(primaryDataSource), shardPools.pools().stream()).toList()));
+        dataSource.setReadOnlyDataSource(new ShardRoutingDataSource(Stream.concat(Stream.<DataSource>of(replicaDataSource), shardPools.pools().stream()).toList()));
+        return dataSource;
+    }
+
+    // shard 0は@Primaryのデータソース(トランザクション外ではshard 0に接続する)でマイグレーションされるので、残りのshardにも同じ設定で適用する
+    @Bean
+    public FlywayMigrationStrategy flywayMigrationStrategy(ShardPools shardPools) {
+        return flyway -> {
+            flyway.migrate();
+            shardPools.pools().forEach(shard -> Flyway.configure().configuration(flyway.getConfiguration()).dataSource(shard).load().migrate());
+        };
+    }
+
+    // 使用中の接続数/最大接続数。hikaricp.connections.pendingと合わせて、どのプールが詰まっているかを見る
+    @Bean
+    public MeterBinder poolSaturationMetrics(List<HikariDataSource> pools) {
+        return registry -> pools.forEach(pool -> Gauge.builder("demo.datasource.pool.saturation", pool, DataSourceConfig::saturation)
+                .description("Active connections divided by the maximum pool size")
+                .tag("pool", pool.getPoolName())
+                .register(registry));
+    }
+
+    private static double saturation(HikariDataSource pool) {
+        var mxBean = pool.getHikariPoolMXBean();
+        return mxBean == null ? 0 : (double) mxBean.getActiveConnections() / pool.getMaximumPoolSize();
+    }
+}
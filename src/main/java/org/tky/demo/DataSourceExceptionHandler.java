@@ -0,0 +1,46 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.TransactionException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.sql.SQLTransientConnectionException;
+
+@Slf4j
+@RestControllerAdvice
+public class DataSourceExceptionHandler {
+
+    @ExceptionHandler(CrossShardTransactionException.class)
+    public ResponseEntity<String> handleCrossShardTransaction(CrossShardTransactionException e) {
+        log.warn("cross-shard transaction: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    @ExceptionHandler(GroupCommitUnavailableException.class)
+    public ResponseEntity<Void> handleGroupCommitUnavailable(GroupCommitUnavailableException e) {
+        log.warn("group commit unavailable: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+    }
+
+    // コネクションプールが枯渇してタイムアウトした場合と、やり直しても解消しなかったserialization failure/deadlockの場合のみ503にし、
+    // それ以外(ロールバックの確認用の例外など)はそのまま500にする
+    @ExceptionHandler({DataAccessException.class, TransactionException.class})
+    public ResponseEntity<Void> handleConnectionTimeout(RuntimeException e) {
+        if (TransactionRetryAspect.isRetryable(e)) {
+            log.warn("transaction conflict: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException) {
+                log.warn("connection pool exhausted: {}", cause.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+            }
+        }
+        throw e;
+    }
+}
@@ -0,0 +1,15 @@
+package org.tky.demo;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+// まとめたcommitが時間内に終わらなかった場合、flusherが異常終了した場合、シャットダウン中の場合。再送すれば成功しうるので503にする
+public class GroupCommitUnavailableException extends TransientDataAccessResourceException {
+
+    public GroupCommitUnavailableException(String message) {
+        super(message);
+    }
+
+    public GroupCommitUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
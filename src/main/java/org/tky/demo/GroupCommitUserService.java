@@ -0,0 +1,173 @@
+package org.tky.demo;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 同時に来たユーザー作成をキューに溜め、maxBatchSize件またはmaxWaitMicros毎に1つのトランザクションでまとめてinsertする。
+// まとめたinsertが失敗した場合は、1件ずつ別のトランザクションでやり直して失敗した行だけをエラーにする。
+@Slf4j
+@Service
+public class GroupCommitUserService {
+
+    private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final TransactionalUserService transactionalUserService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int flushers;
+    private final long callerTimeoutMillis;
+    private final BlockingQueue<Request> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    public GroupCommitUserService(UserRepository userRepository, UserCache userCache, TransactionalUserService transactionalUserService, TransactionTemplate transactionTemplate,
+                                  @Value("${demo.group-commit.enabled}") boolean enabled,
+                                  @Value("${demo.group-commit.max-batch-size}") int maxBatchSize,
+                                  @Value("${demo.group-commit.max-wait-micros}") long maxWaitMicros,
+                                  @Value("${demo.group-commit.queue-capacity}") int queueCapacity,
+                                  @Value("${demo.group-commit.flushers}") int flushers,
+                                  @Value("${demo.group-commit.caller-timeout-millis}") long callerTimeoutMillis) {
+        this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.transactionalUserService = transactionalUserService;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.flushers = flushers;
+        this.callerTimeoutMillis = callerTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < flushers; i++) {
+            threads.add(Thread.ofPlatform().name("group-commit-" + i).daemon().start(this::run));
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (var thread : threads) {
+            thread.join();
+        }
+        // flusherの終了と入れ違いにキューに入ったものは、待たせたままにせずに失敗させる
+        var remaining = new ArrayList<Request>();
+        queue.drainTo(remaining);
+        remaining.forEach(request -> request.future().completeExceptionally(new GroupCommitUnavailableException("group commit is shutting down")));
+    }
+
+    public User createUser(String name) {
+        var request = new Request(name, new CompletableFuture<>());
+        // キューが一杯の場合は呼び出し元のスレッドでそのまま作成する。
+        // 呼び出し元のトランザクション(Idempotency-Keyの付いたリクエストなど)がある場合も、その中で作成しなければ一緒にcommit/rollbackされない
+        if (!running || TransactionSynchronizationManager.isActualTransactionActive() || !queue.offer(request)) {
+            return transactionalUserService.createUser(name);
+        }
+        // offerとstopが入れ違った場合、キューから取り戻せればそのまま作成する
+        if (!running && queue.remove(request)) {
+            return transactionalUserService.createUser(name);
+        }
+        try {
+            return request.future().get(callerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // まだキューにあればcommitされないことが確定する。取り出し済みの場合は、この後commitされる可能性がある
+            var state = queue.remove(request) ? "not committed" : "may still be committed";
+            throw new GroupCommitUnavailableException("group commit did not complete within " + callerTimeoutMillis + " ms (" + state + ")", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new GroupCommitUnavailableException("group commit failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GroupCommitUnavailableException("interrupted while waiting for group commit", e);
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<Request>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                // Errorでflusherが止まると、キューに入れた呼び出し元が全員待ち続けることになる
+                log.error("group commit flusher failed, failing {} pending requests", batch.size(), e);
+                batch.forEach(request -> request.future().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Request> batch) {
+        try {
+            var users = transactionTemplate.execute(status -> {
+                var created = userRepository.saveAll(batch.stream().map(request -> new User(request.name())).toList());
+                created.forEach(userCache::put);
+                return created;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(users.get(i));
+            }
+        } catch (RuntimeException e) {
+            log.warn("group commit of {} users failed, retrying one by one: {}", batch.size(), e.getMessage());
+            for (var request : batch) {
+                try {
+                    request.future().complete(transactionalUserService.createUser(request.name()));
+                } catch (RuntimeException ex) {
+                    request.future().completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    private record Request(String name, CompletableFuture<User> future) {
+    }
+}
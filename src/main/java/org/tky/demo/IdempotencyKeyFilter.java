@@ -0,0 +1,286 @@
+package org.tky.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Idempotency-Keyヘッダの付いたPOST /users/**を、idempotency_keysへのinsertと同じトランザクションで処理し、2xxのレスポンスを保存する。
+// 同じキーで再送されたリクエストは処理せずに保存したレスポンスを返し、2xx以外だった場合はキーごとrollbackして再送時にもう一度処理する。
+// 同じインスタンスに同時に来た重複はキーのハッシュで選んだロックで、別のインスタンスの重複はinsertの一意制約で、最初のリクエストの終了を待つ。
+// キーのinsertで書き込み用の接続を取得するので、BulkheadFilterで429にされるリクエストはここまで来ないようにその後に置く。
+@Component
+@Order(IdempotencyKeyFilter.ORDER)
+public class IdempotencyKeyFilter extends OncePerRequestFilter {
+
+    static final int ORDER = BulkheadFilter.ORDER + 10;
+    static final String HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    static final int MAX_KEY_LENGTH = 255;
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+    // インポートはCOPYで大量の行を書くので1つのトランザクションにまとめず、renameはそもそも冪等。
+    // bulkはchunk毎にcommitするので、キーはTransactionalUserServiceがchunkのトランザクションで記録する
+    private static final List<String> EXCLUDED_PATHS = List.of("/users/import", "/users/bulk", "/users/*/rename");
+
+    private final IdempotencyKeyStore store;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardPools shardPools;
+    private final boolean enabled;
+    private final long lockTimeoutMillis;
+    private final ReentrantLock[] locks;
+    private final Cache<String, IdempotentResponse> completed;
+    private final Map<String, Counter> outcomes;
+
+    public IdempotencyKeyFilter(IdempotencyKeyStore store, TransactionTemplate transactionTemplate, ShardPools shardPools, MeterRegistry meterRegistry,
+                                @Value("${demo.idempotency.enabled}") boolean enabled,
+                                @Value("${demo.idempotency.lock-stripes}") int lockStripes,
+                                @Value("${demo.idempotency.lock-timeout-millis}") long lockTimeoutMillis,
+                                @Value("${demo.idempotency.cache-size}") long cacheSize) {
+        this.store = store;
+        this.transactionTemplate = transactionTemplate;
+        this.shardPools = shardPools;
+        this.enabled = enabled;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+        this.locks = Stream.generate(ReentrantLock::new).limit(lockStripes).toArray(ReentrantLock[]::new);
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(store.ttl())
+                .build();
+        this.outcomes = Stream.of("executed", "replayed_memory", "replayed_database", "mismatch", "timeout")
+                .collect(Collectors.toMap(outcome -> outcome, outcome -> Counter.builder("demo.idempotency.requests")
+                        .description("Requests with an Idempotency-Key header by how they were answered")
+                        .tag("outcome", outcome)
+                        .register(meterRegistry)));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        var path = request.getRequestURI();
+        return !enabled
+                || !HttpMethod.POST.matches(request.getMethod())
+                || request.getHeader(HEADER) == null
+                || !PATH_MATCHER.match("/users/**", path)
+                || EXCLUDED_PATHS.stream().anyMatch(pattern -> PATH_MATCHER.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        var key = request.getHeader(HEADER);
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+        var cachedRequest = new CachedBodyRequest(request);
+        var requestHash = hash(cachedRequest);
+
+        // 処理済みのキーはDBに問い合わせずに返す
+        var stored = completed.getIfPresent(key);
+        if (stored != null) {
+            replay(stored, requestHash, response, "replayed_memory");
+            return;
+        }
+
+        // 同じstripeの別のキーも待たせることになるが、lock-stripesを同時に処理する書き込みより十分多くしておけば滅多に重ならない
+        var lock = locks[Math.floorMod(key.hashCode(), locks.length)];
+        try {
+            if (!lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                outcomes.get("timeout").increment();
+                response.setStatus(HttpStatus.CONFLICT.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+        try {
+            stored = completed.getIfPresent(key);
+            if (stored != null) {
+                replay(stored, requestHash, response, "replayed_memory");
+                return;
+            }
+            execute(key, requestHash, cachedRequest, response, filterChain);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void execute(String key, byte[] requestHash, HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        var responseWrapper = new ContentCachingResponseWrapper(response);
+        Outcome outcome;
+        try {
+            outcome = transactionTemplate.execute(status -> {
+                shardPools.bindKey(key);
+                while (!store.claim(key, requestHash)) {
+                    // claimとfindの間に期限切れで削除された場合はもう一度claimする
+                    var existing = store.find(key);
+                    if (existing.isPresent()) {
+                        return new Outcome(existing.get(), true);
+                    }
+                }
+                try {
+                    filterChain.doFilter(request, responseWrapper);
+                } catch (IOException | ServletException e) {
+                    throw new ChainException(e);
+                }
+                if (!HttpStatusCode.valueOf(responseWrapper.getStatus()).is2xxSuccessful()) {
+                    status.setRollbackOnly();
+                    return null;
+                }
+                var executed = new IdempotentResponse(requestHash, responseWrapper.getStatus(), responseWrapper.getContentType(), responseWrapper.getContentAsByteArray());
+                store.complete(key, executed);
+                return new Outcome(executed, false);
+            });
+        } catch (ChainException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw (ServletException) e.getCause();
+        }
+
+        if (outcome != null && outcome.replayed()) {
+            replay(outcome.response(), requestHash, response, "replayed_database");
+            return;
+        }
+        if (outcome != null) {
+            // commitされた後でなければ、rollbackされたレスポンスを別のリクエストに返してしまう
+            completed.put(key, outcome.response());
+            outcomes.get("executed").increment();
+        }
+        responseWrapper.copyBodyToResponse();
+    }
+
+    private void replay(IdempotentResponse stored, byte[] requestHash, HttpServletResponse response, String outcome) throws IOException {
+        if (!MessageDigest.isEqual(stored.requestHash(), requestHash)) {
+            outcomes.get("mismatch").increment();
+            response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value(), HEADER + " was already used for a different request");
+            return;
+        }
+        outcomes.get(outcome).increment();
+        response.setStatus(stored.status());
+        response.setHeader(REPLAYED_HEADER, "true");
+        if (stored.contentType() != null) {
+            response.setContentType(stored.contentType());
+        }
+        response.setContentLength(stored.body().length);
+        response.getOutputStream().write(stored.body());
+    }
+
+    // 同じキーで別の内容のリクエストが送られた場合に気づけるよう、パスとクエリとボディのハッシュを保存する
+    private static byte[] hash(CachedBodyRequest request) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(request.getRequestURI().getBytes(StandardCharsets.UTF_8));
+            if (request.getQueryString() != null) {
+                digest.update((byte) '?');
+                digest.update(request.getQueryString().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+            return digest.digest(request.body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Outcome(IdempotentResponse response, boolean replayed) {
+    }
+
+    // TransactionTemplateのコールバックからチェック例外を投げるためのラッパー
+    private static final class ChainException extends RuntimeException {
+        ChainException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    // ハッシュを取るために先に読んだボディを、ハンドラからもう一度読めるようにする
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = request.getInputStream().readAllBytes();
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            var input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return input.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            var encoding = getCharacterEncoding();
+            Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+
+// idempotency_keysテーブルの読み書きと、期限切れのキーの削除。
+// claim/find/completeは呼び出し元のトランザクション(リクエストの処理と同じトランザクション)で実行される。
+@Slf4j
+@Component
+public class IdempotencyKeyStore {
+
+    // 同じキーの行がcommitされていないinsertがあれば、そのトランザクションが終わるまで待ってから判定される
+    private static final String CLAIM_SQL = "insert into idempotency_keys (idempotency_key, request_hash) values (?, ?) on conflict do nothing";
+    private static final String FIND_SQL = "select request_hash, status, content_type, body from idempotency_keys where idempotency_key = ?";
+    private static final String COMPLETE_SQL = "update idempotency_keys set status = ?, content_type = ?, body = ? where idempotency_key = ?";
+    private static final String DELETE_EXPIRED_SQL = """
+            delete from idempotency_keys where idempotency_key in (
+                select idempotency_key from idempotency_keys
+                where created_at < clock_timestamp() - ? * interval '1 second'
+                order by created_at limit ? for update skip locked)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardPools shardPools;
+    private final Duration ttl;
+    private final int cleanupBatchSize;
+    private final Counter expired;
+
+    public IdempotencyKeyStore(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ShardPools shardPools, MeterRegistry meterRegistry,
+                               @Value("${demo.idempotency.ttl-hours}") long ttlHours,
+                               @Value("${demo.idempotency.cleanup.batch-size}") int cleanupBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.shardPools = shardPools;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.cleanupBatchSize = cleanupBatchSize;
+        this.expired = Counter.builder("demo.idempotency.expired")
+                .description("Expired idempotency keys deleted by the cleanup")
+                .register(meterRegistry);
+    }
+
+    Duration ttl() {
+        return ttl;
+    }
+
+    // キーを取れた場合はtrue。既に同じキーがcommitされている場合はfalse
+    boolean claim(String key, byte[] requestHash) {
+        return jdbcTemplate.update(CLAIM_SQL, key, requestHash) == 1;
+    }
+
+    Optional<IdempotentResponse> find(String key) {
+        return jdbcTemplate.query(FIND_SQL, IdempotencyKeyStore::mapResponse, key).stream().findFirst();
+    }
+
+    void complete(String key, IdempotentResponse response) {
+        jdbcTemplate.update(COMPLETE_SQL, response.status(), response.contentType(), response.body(), key);
+    }
+
+    // shard毎に、期限切れのキーがなくなるまでcleanupBatchSize件ずつ別のトランザクションで削除する
+    @Scheduled(fixedDelayString = "${demo.idempotency.cleanup.interval-millis}", initialDelayString = "${demo.idempotency.cleanup.interval-millis}")
+    public void deleteExpired() {
+        try {
+            for (int shard = 0; shard < shardPools.shardCount(); shard++) {
+                while (deleteExpiredBatch(shard) == cleanupBatchSize) {
+                    // 続けて次のバッチへ
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("idempotency key cleanup failed, retrying on the next run: {}", e.getMessage());
+        }
+    }
+
+    int deleteExpiredBatch(int shard) {
+        Integer deleted = transactionTemplate.execute(status -> {
+            ShardContext.bind(shard);
+            return jdbcTemplate.update(DELETE_EXPIRED_SQL, ttl.toSeconds(), cleanupBatchSize);
+        });
+        int count = deleted == null ? 0 : deleted;
+        expired.increment(count);
+        return count;
+    }
+
+    private static IdempotentResponse mapResponse(ResultSet rs, int rowNum) throws SQLException {
+        return new IdempotentResponse(rs.getBytes("request_hash"), rs.getInt("status"), rs.getString("content_type"), rs.getBytes("body"));
+    }
+}
@@ -0,0 +1,5 @@
+package org.tky.demo;
+
+// Idempotency-Keyで最初に処理したリクエストのハッシュと、そのレスポンス
+public record IdempotentResponse(byte[] requestHash, int status, String contentType, byte[] body) {
+}
@@ -0,0 +1,24 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+
+@Slf4j
+public class LogOutboxSink implements OutboxSink {
+
+    private final ObjectMapper objectMapper;
+
+    public LogOutboxSink(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void publish(List<OutboxEvent> events) throws IOException {
+        for (var event : events) {
+            log.info("{}", objectMapper.writeValueAsString(event));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+// AnotherTransactionalServiceと同じ処理を、呼び出し元のトランザクション内のsavepointで実行する。
+// 例外で抜けた場合はsavepointまでrollbackされるだけで、呼び出し元のトランザクションはrollback-onlyにならない。
+@Service
+@Transactional(propagation = Propagation.NESTED)
+@Slf4j
+public class NestedAnotherTransactionalService {
+
+    private final UserRepository userRepository;
+    private final UserCache userCache;
+
+    public NestedAnotherTransactionalService(UserRepository userRepository, UserCache userCache) {
+        this.userRepository = userRepository;
+        this.userCache = userCache;
+    }
+
+    public User createUser(String name) {
+        log.info("start nested service");
+        var user = new User(name);
+        log.info("start save: {}", user);
+        userRepository.save(user);
+        // putの反映は外側のトランザクションのcommit時で、savepointのrollbackでは取り消されない。
+        // 例外で抜ける場合はputしないこと
+        userCache.put(user);
+        log.info("end save: {}", user);
+        log.info("end nested service");
+        return user;
+    }
+
+    public User createUserAndError(String name) {
+        log.info("start nested service");
+        var user = new User(name);
+        log.info("start save: {}", user);
+        userRepository.save(user);
+        log.info("end save: {}", user);
+        if (true) {
+            throw new RuntimeException("rollback test");
+        }
+        return user;
+    }
+}
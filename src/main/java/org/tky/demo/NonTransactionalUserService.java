@@ -8,9 +8,11 @@ import org.springframework.stereotype.Service;
 public class NonTransactionalUserService {
 
     private final UserRepository userRepository;
+    private final UserCache userCache;
 
-    public NonTransactionalUserService(UserRepository userRepository) {
+    public NonTransactionalUserService(UserRepository userRepository, UserCache userCache) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
     }
 
     public User createUser(String name) {
@@ -18,6 +20,7 @@ public class NonTransactionalUserService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         return user;
     }
@@ -27,6 +30,7 @@ public class NonTransactionalUserService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         if (true) {
             throw new RuntimeException("rollback test");
@@ -0,0 +1,22 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+public class OutboxConfig {
+
+    // AOTでビルドした場合もプロパティで切り替えられるよう、@ConditionalOnPropertyではなく起動時に選ぶ
+    @Bean
+    public OutboxSink outboxSink(@Value("${demo.outbox.sink}") String sink, @Value("${demo.outbox.file.path}") Path path, ObjectMapper objectMapper) {
+        return switch (sink) {
+            case "log" -> new LogOutboxSink(objectMapper);
+            case "file" -> new FileOutboxSink(objectMapper, path);
+            default -> throw new IllegalArgumentException("unknown outbox sink: " + sink + ", expected log or file");
+        };
+    }
+}
@@ -0,0 +1,8 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+import java.time.Instant;
+
+public record OutboxEvent(long id, String aggregateType, long aggregateId, String eventType, @JsonRawValue String payload, Instant createdAt) {
+}
@@ -0,0 +1,157 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// outboxからbatchSize件ずつ取り出してsinkに送り、送れたものを削除する。
+// 取り出しはFOR UPDATE SKIP LOCKEDなので、複数のインスタンスで動かしても同じ行を取り合わずに並行して送れる。
+// sinkへの送信が失敗した場合はトランザクションごとrollbackされ、次回また送られる(at-least-once)。
+// lagは送れたイベントでしか記録されないので、relayが止まっても気づけるよう、未送信の件数と最も古いイベントの経過時間をrelayとは別に計測する。
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    private static final String SELECT_BATCH_SQL = """
+            select id, aggregate_type, aggregate_id, event_type, payload, created_at
+            from outbox order by id limit ? for update skip locked""";
+    private static final String DELETE_SQL = "delete from outbox where id = any(?)";
+    // idの順とcreated_atの順はほぼ同じなので、created_atの最小値の代わりにPKで先頭の行を引く
+    private static final String BACKLOG_SQL = "select count(*) as backlog, (select created_at from outbox order by id limit 1) as oldest from outbox";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboxSink sink;
+    private final ShardPools shardPools;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Counter relayed;
+    private final Timer lag;
+    private final Timer batch;
+    private final AtomicLong backlog = new AtomicLong();
+    // 未送信のイベントがなければLong.MAX_VALUE
+    private final AtomicLong oldestEpochMillis = new AtomicLong(Long.MAX_VALUE);
+
+    public OutboxRelay(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, OutboxSink sink, ShardPools shardPools, MeterRegistry meterRegistry,
+                       @Value("${demo.outbox.relay.enabled}") boolean enabled,
+                       @Value("${demo.outbox.batch-size}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.sink = sink;
+        this.shardPools = shardPools;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.relayed = Counter.builder("demo.outbox.relayed")
+                .description("Outbox events delivered to the sink")
+                .register(meterRegistry);
+        this.lag = Timer.builder("demo.outbox.lag")
+                .description("Time from writing an outbox event until it is delivered to the sink")
+                .register(meterRegistry);
+        this.batch = Timer.builder("demo.outbox.batch")
+                .description("Time to lock, deliver and delete one batch of outbox events")
+                .register(meterRegistry);
+        Gauge.builder("demo.outbox.backlog", backlog, AtomicLong::get)
+                .description("Outbox events not yet delivered to the sink")
+                .register(meterRegistry);
+        // 計測が止まっても古いイベントの経過時間は読むたびに伸びる
+        TimeGauge.builder("demo.outbox.oldest.age", oldestEpochMillis, TimeUnit.MILLISECONDS,
+                        oldest -> oldest.get() == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest.get()))
+                .description("Age of the oldest outbox event not yet delivered to the sink")
+                .register(meterRegistry);
+    }
+
+    // shard毎に、溜まっている間は間隔を空けずに続けて送る
+    @Scheduled(fixedDelayString = "${demo.outbox.poll-interval-millis}")
+    public void relay() {
+        if (!enabled) {
+            return;
+        }
+        for (int shard = 0; shard < shardPools.shardCount(); shard++) {
+            try {
+                while (relayBatch(shard) == batchSize) {
+                    // 続けて次のバッチへ
+                }
+            } catch (RuntimeException e) {
+                log.warn("outbox relay on shard {} failed, retrying on the next poll: {}", shard, e.getMessage());
+            }
+        }
+    }
+
+    // relayが無効なインスタンスでも、別のインスタンスのrelayが止まっていないか分かるように計測する
+    @Scheduled(fixedDelayString = "${demo.outbox.backlog.sample-interval-millis}")
+    public void sampleBacklog() {
+        long count = 0;
+        long oldest = Long.MAX_VALUE;
+        for (int shard = 0; shard < shardPools.shardCount(); shard++) {
+            int bound = shard;
+            try {
+                var sample = transactionTemplate.execute(status -> {
+                    ShardContext.bind(bound);
+                    return jdbcTemplate.queryForMap(BACKLOG_SQL);
+                });
+                count += ((Number) sample.get("backlog")).longValue();
+                if (sample.get("oldest") instanceof Timestamp createdAt) {
+                    oldest = Math.min(oldest, createdAt.getTime());
+                }
+            } catch (RuntimeException e) {
+                log.warn("outbox backlog on shard {} could not be sampled: {}", shard, e.getMessage());
+                return;
+            }
+        }
+        backlog.set(count);
+        oldestEpochMillis.set(oldest);
+    }
+
+    int relayBatch(int shard) {
+        var sample = Timer.start();
+        Integer count = transactionTemplate.execute(status -> {
+            ShardContext.bind(shard);
+            var events = jdbcTemplate.query(SELECT_BATCH_SQL, OutboxRelay::mapEvent, batchSize);
+            if (events.isEmpty()) {
+                return 0;
+            }
+            try {
+                sink.publish(events);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            var now = Instant.now();
+            events.forEach(event -> lag.record(Duration.between(event.createdAt(), now)));
+            var ids = events.stream().map(OutboxEvent::id).toArray(Long[]::new);
+            jdbcTemplate.update(connection -> {
+                var statement = connection.prepareStatement(DELETE_SQL);
+                statement.setArray(1, connection.createArrayOf("bigint", ids));
+                return statement;
+            });
+            return events.size();
+        });
+        if (count != null && count > 0) {
+            sample.stop(batch);
+            relayed.increment(count);
+        }
+        return count == null ? 0 : count;
+    }
+
+    private static OutboxEvent mapEvent(ResultSet rs, int rowNum) throws SQLException {
+        return new OutboxEvent(rs.getLong("id"), rs.getString("aggregate_type"), rs.getLong("aggregate_id"),
+                rs.getString("event_type"), rs.getString("payload"), rs.getTimestamp("created_at").toInstant());
+    }
+}
@@ -0,0 +1,10 @@
+package org.tky.demo;
+
+import java.io.IOException;
+import java.util.List;
+
+// 例外を投げた場合、そのバッチはoutboxに残り次回また送られる(at-least-once)
+public interface OutboxSink {
+
+    void publish(List<OutboxEvent> events) throws IOException;
+}
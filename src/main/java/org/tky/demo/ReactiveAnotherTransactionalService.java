@@ -0,0 +1,32 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+@Service
+@Slf4j
+public class ReactiveAnotherTransactionalService {
+
+    private final ReactiveUserRepository userRepository;
+    private final TransactionalOperator transactionalOperator;
+
+    public ReactiveAnotherTransactionalService(ReactiveUserRepository userRepository, TransactionalOperator transactionalOperator) {
+        this.userRepository = userRepository;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    public Mono<User> createUser(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<User> createUserAndError(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user))
+                .then(Mono.<User>error(new RuntimeException("rollback test")))
+                .as(transactionalOperator::transactional);
+    }
+}
@@ -0,0 +1,27 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@Service
+public class ReactiveNonTransactionalUserService {
+
+    private final ReactiveUserRepository userRepository;
+
+    public ReactiveNonTransactionalUserService(ReactiveUserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    public Mono<User> createUser(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user));
+    }
+
+    public Mono<User> createUserAndError(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user))
+                .then(Mono.error(new RuntimeException("rollback test")));
+    }
+}
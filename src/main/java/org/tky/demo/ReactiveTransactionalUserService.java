@@ -0,0 +1,79 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+// TransactionalUserServiceと同じcommit/rollbackの挙動をTransactionalOperatorで再現する。
+// 内側のサービスもTransactionalOperatorを使うので、外側のトランザクションがあればそれに参加する。
+@Service
+@Slf4j
+public class ReactiveTransactionalUserService {
+
+    private final ReactiveUserRepository userRepository;
+    private final ReactiveAnotherTransactionalService anotherTransactionalService;
+    private final ReactiveNonTransactionalUserService nonTransactionalUserService;
+    private final TransactionalOperator transactionalOperator;
+
+    public ReactiveTransactionalUserService(ReactiveUserRepository userRepository, ReactiveAnotherTransactionalService anotherTransactionalService,
+                                            ReactiveNonTransactionalUserService nonTransactionalUserService, TransactionalOperator transactionalOperator) {
+        this.userRepository = userRepository;
+        this.anotherTransactionalService = anotherTransactionalService;
+        this.nonTransactionalUserService = nonTransactionalUserService;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    public Mono<User> createUser(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<User> createUserAndError(String name) {
+        return userRepository.save(name)
+                .doOnNext(user -> log.info("end save: {}", user))
+                .then(Mono.<User>error(new RuntimeException("rollback test")))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<List<User>> createCoupleOfUsers(String name1, String name2) {
+        return userRepository.save(name1)
+                .flatMap(user1 -> anotherTransactionalService.createUser(name2).map(user2 -> List.of(user1, user2)))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<List<User>> createCoupleOfUsersAndErrorAtLast(String name1, String name2) {
+        return userRepository.save(name1)
+                .flatMap(user1 -> anotherTransactionalService.createUser(name2))
+                .then(Mono.<List<User>>error(new RuntimeException("rollback test")))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<List<User>> createCoupleOfUsersAndErrorNextService(String name1, String name2) {
+        return userRepository.save(name1)
+                .flatMap(user1 -> anotherTransactionalService.createUserAndError(name2).map(user2 -> List.of(user1, user2)))
+                .as(transactionalOperator::transactional);
+    }
+
+    // 内側の失敗でトランザクションがrollback-onlyになるので、catchしてもcommit時にUnexpectedRollbackExceptionになる
+    public Mono<List<User>> createCoupleOfUsersAndErrorNextServiceAndCatch(String name1, String name2) {
+        return userRepository.save(name1)
+                .flatMap(user1 -> anotherTransactionalService.createUserAndError(name2)
+                        .doOnError(e -> log.error("catch error"))
+                        .onErrorResume(RuntimeException.class, e -> Mono.empty())
+                        .thenReturn(List.of(user1, user1)))
+                .as(transactionalOperator::transactional);
+    }
+
+    public Mono<List<User>> createCoupleOfUsersAndErrorFromNonTransactionalService(String name1, String name2) {
+        return userRepository.save(name1)
+                .flatMap(user1 -> nonTransactionalUserService.createUserAndError(name2)
+                        .doOnError(e -> log.error("catch error"))
+                        .onErrorResume(RuntimeException.class, e -> Mono.empty())
+                        .thenReturn(List.of(user1, user1)))
+                .as(transactionalOperator::transactional);
+    }
+}
@@ -0,0 +1,100 @@
+package org.tky.demo;
+
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// UserControllerのシナリオをR2DBCで実行する。戻り値のMonoは非同期で処理されるので、DBの応答待ちの間リクエストスレッドを占有しない。
+@RestController
+@RequestMapping("/reactive/users")
+public class ReactiveUserController {
+
+    private final ReactiveUserRepository userRepository;
+    private final ReactiveNonTransactionalUserService nonTransactionalUserService;
+    private final ReactiveTransactionalUserService transactionalUserService;
+
+    public ReactiveUserController(ReactiveUserRepository userRepository, ReactiveNonTransactionalUserService nonTransactionalUserService,
+                                  ReactiveTransactionalUserService transactionalUserService) {
+        this.userRepository = userRepository;
+        this.nonTransactionalUserService = nonTransactionalUserService;
+        this.transactionalUserService = transactionalUserService;
+    }
+
+    @GetMapping("{id}")
+    public Mono<User> getUsers(@PathVariable long id) {
+        return userRepository.findById(id).switchIfEmpty(Mono.error(new NoSuchElementException("No value present")));
+    }
+
+    // トランザクションの外でinsertするので、insertは自動commitされ、その後のエラーではロールバックされない
+    @PostMapping("/on_controller")
+    public Mono<User> createUserOnController(@RequestBody UserForm userForm) {
+        return userRepository.save(userForm.getName());
+    }
+
+    @PostMapping("/on_controller_rollback1")
+    public Mono<User> createUserOnControllerRollback1(@RequestBody UserForm userForm) {
+        return userRepository.save(userForm.getName())
+                .then(Mono.error(new RuntimeException("rollback test")));
+    }
+
+    @PostMapping("/on_non_transactional_service")
+    public Mono<User> createUserOnNonTransactionalService(@RequestBody UserForm userForm) {
+        return nonTransactionalUserService.createUser(userForm.getName());
+    }
+
+    @PostMapping("/on_non_transactional_service_rollback1")
+    public Mono<User> createUserOnNonTransactionalServiceRollback1(@RequestBody UserForm userForm) {
+        return nonTransactionalUserService.createUserAndError(userForm.getName());
+    }
+
+    @PostMapping("/on_transactional_service")
+    public Mono<User> createUserOnTransactionalService(@RequestBody UserForm userForm) {
+        return transactionalUserService.createUser(userForm.getName());
+    }
+
+    @PostMapping("/on_transactional_service_rollback1")
+    public Mono<User> createUserOnTransactionalServiceRollback1(@RequestBody UserForm userForm) {
+        return transactionalUserService.createUserAndError(userForm.getName());
+    }
+
+    // 1件ずつ別のトランザクションでcommitする
+    @PostMapping("/create_user_twice")
+    public Mono<List<User>> createUserTwice(@RequestBody UserForm userForm) {
+        return transactionalUserService.createUser(userForm.getName() + "_1")
+                .flatMap(user1 -> transactionalUserService.createUser(userForm.getName() + "_2").map(user2 -> List.of(user1, user2)));
+    }
+
+    // 1件目のトランザクションはcommit済みなので、その後のエラーでも1件だけ保存される
+    @PostMapping("/create_user_twice_within_error")
+    public Mono<List<User>> createUserTwiceWithinError(@RequestBody UserForm userForm) {
+        return transactionalUserService.createUser(userForm.getName() + "_1")
+                .then(Mono.<List<User>>error(new RuntimeException("rollback test")));
+    }
+
+    @PostMapping("/create_couple_of_users")
+    public Mono<List<User>> createCoupleOfUsers(@RequestBody UserForm userForm) {
+        return transactionalUserService.createCoupleOfUsers(userForm.getName() + "_1", userForm.getName() + "_2");
+    }
+
+    @PostMapping("/create_couple_of_users_rollback1")
+    public Mono<List<User>> createCoupleOfUsersRollback1(@RequestBody UserForm userForm) {
+        return transactionalUserService.createCoupleOfUsersAndErrorAtLast(userForm.getName() + "_1", userForm.getName() + "_2");
+    }
+
+    @PostMapping("/create_couple_of_users_rollback2")
+    public Mono<List<User>> createCoupleOfUsersRollback2(@RequestBody UserForm userForm) {
+        return transactionalUserService.createCoupleOfUsersAndErrorNextService(userForm.getName() + "_1", userForm.getName() + "_2");
+    }
+
+    @PostMapping("/create_couple_of_users_rollback3")
+    public Mono<List<User>> createCoupleOfUsersRollback3(@RequestBody UserForm userForm) {
+        return transactionalUserService.createCoupleOfUsersAndErrorNextServiceAndCatch(userForm.getName() + "_1", userForm.getName() + "_2");
+    }
+
+    @PostMapping("/create_couple_of_users_rollback4")
+    public Mono<List<User>> createCoupleOfUsersRollback4(@RequestBody UserForm userForm) {
+        return transactionalUserService.createCoupleOfUsersAndErrorFromNonTransactionalService(userForm.getName() + "_1", userForm.getName() + "_2");
+    }
+}
@@ -0,0 +1,62 @@
+package org.tky.demo;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+// idは列のデフォルト値に任せると1行毎にnextvalされ、シーケンスがincrement by(V2で50)ずつ進んでしまうので、
+// ShardedIdGeneratorと同じくnextvalの値から始まるincrement by個のIDをメモリ上で払い出す(pooled-lo)
+@Repository
+public class ReactiveUserRepository {
+
+    private static final String NEXTVAL_SQL = """
+            select nextval('users_id_seq') as low,
+                   (select increment_by from pg_sequences where schemaname = current_schema() and sequencename = 'users_id_seq') as increment""";
+
+    private final DatabaseClient databaseClient;
+    private final Object lock = new Object();
+    private long next;
+    private long limit;
+
+    public ReactiveUserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Mono<User> findById(long id) {
+        return databaseClient.sql("select id, name from users where id = :id")
+                .bind("id", id)
+                .map(row -> new User(row.get("id", Long.class), row.get("name", String.class)))
+                .one();
+    }
+
+    public Mono<User> save(String name) {
+        return nextId().flatMap(id -> databaseClient.sql("insert into users (id, name) values (:id, :name)")
+                .bind("id", id)
+                .bind("name", name)
+                .fetch()
+                .rowsUpdated()
+                .thenReturn(new User(id, name)));
+    }
+
+    // 同時にブロックを使い切った場合はそれぞれがnextvalし、後から確保した方の残りで上書きする(上書きされた分は欠番になる)
+    private Mono<Long> nextId() {
+        return Mono.defer(() -> {
+            synchronized (lock) {
+                if (next < limit) {
+                    return Mono.just(next++);
+                }
+            }
+            return databaseClient.sql(NEXTVAL_SQL)
+                    .map(row -> {
+                        long low = row.get("low", Long.class);
+                        long increment = row.get("increment", Long.class);
+                        synchronized (lock) {
+                            next = low + 1;
+                            limit = low + increment;
+                        }
+                        return low;
+                    })
+                    .one();
+        });
+    }
+}
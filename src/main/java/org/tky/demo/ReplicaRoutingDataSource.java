@@ -0,0 +1,106 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 読み取り専用トランザクションの接続先。正常なレプリカにラウンドロビンで振り分け、
+// 全てのレプリカがダウンしている場合(レプリカがない場合も)はfallbackDataSource(プライマリの読み取り用プール)に接続する。
+// プールが埋まっていて接続を待ちきれなかっただけの場合はダウンとはせず、そのリクエストだけ次のレプリカ(なければfallback)に接続する。
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 1;
+
+    private final List<Replica> replicas;
+    private final DataSource fallbackDataSource;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(List<HikariDataSource> replicas, DataSource fallbackDataSource) {
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.fallbackDataSource = fallbackDataSource;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int size = replicas.size();
+        int start = size == 0 ? 0 : Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            var replica = replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                if (!isPoolSaturated(e)) {
+                    markDown(replica, e);
+                }
+            }
+        }
+        return fallbackDataSource.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("credentials are configured per replica pool");
+    }
+
+    @Scheduled(fixedDelayString = "${demo.datasource.replica.health-check-interval:5000}")
+    public void checkReplicas() {
+        for (var replica : replicas) {
+            try (var connection = replica.dataSource.getConnection()) {
+                if (!connection.isValid(HEALTH_CHECK_TIMEOUT_SECONDS)) {
+                    throw new SQLException("connection is not valid");
+                }
+                if (!replica.healthy) {
+                    log.info("replica {} is back up", replica.dataSource.getPoolName());
+                    replica.healthy = true;
+                }
+            } catch (SQLException e) {
+                if (isPoolSaturated(e)) {
+                    log.debug("replica {} pool is saturated, skipping the health check: {}", replica.dataSource.getPoolName(), e.getMessage());
+                } else {
+                    markDown(replica, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    // Hikariは接続の待ちがタイムアウトした時にSQLTransientConnectionExceptionを投げ、
+    // 直前にDBへの接続自体が失敗していた場合はその例外をcauseにする。causeがなければプールが埋まっていただけ
+    static boolean isPoolSaturated(SQLException e) {
+        return e instanceof SQLTransientConnectionException && e.getCause() == null;
+    }
+
+    private void markDown(Replica replica, SQLException e) {
+        if (replica.healthy) {
+            log.warn("replica {} is down, falling back to primary: {}", replica.dataSource.getPoolName(), e.getMessage());
+            replica.healthy = false;
+        }
+    }
+
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
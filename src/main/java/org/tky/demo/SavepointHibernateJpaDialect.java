@@ -0,0 +1,118 @@
+package org.tky.demo;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.springframework.lang.Nullable;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionSystemException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// HibernateJpaDialectはsavepointに対応していないため、JpaTransactionManagerでPropagation.NESTEDを使うと
+// NestedTransactionNotSupportedExceptionになる。トランザクションのJDBC接続に対してsavepointを発行するSavepointManagerを返すようにする。
+// Hibernateの永続化コンテキストはsavepointを知らないので、
+// - savepointの作成・解放・rollbackの前にflushして、savepoint内の変更をsavepoint内で実行させる
+// - rollback後は、savepoint以降に永続化されたエンティティをdetachし、変更・削除されたエンティティはDBから読み直すか(削除されていたものは)detachする
+// flushに失敗したセッションは使い続けられない(失敗したinsertが残る)ので、黙って続けずに例外にし、外側のトランザクションもrollback-onlyにする。
+@Slf4j
+public class SavepointHibernateJpaDialect extends HibernateJpaDialect {
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws PersistenceException, SQLException, TransactionException {
+        return new SavepointTransactionData(super.beginTransaction(entityManager, definition), entityManager.unwrap(SessionImplementor.class));
+    }
+
+    @Override
+    public void cleanupTransaction(@Nullable Object transactionData) {
+        super.cleanupTransaction(transactionData instanceof SavepointTransactionData data ? data.delegate() : transactionData);
+    }
+
+    // savepointと、作成時点で永続化コンテキストにあったエンティティとそのロード時の状態
+    private record EntitySavepoint(Savepoint savepoint, Map<Object, Object[]> managedEntities) {
+    }
+
+    private record SavepointTransactionData(Object delegate, SessionImplementor session) implements SavepointManager {
+
+        @Override
+        public Object createSavepoint() throws TransactionException {
+            try {
+                session.flush();
+                var managedEntities = new IdentityHashMap<Object, Object[]>();
+                for (var entry : session.getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+                    var loadedState = entry.getValue().getLoadedState();
+                    managedEntities.put(entry.getKey(), loadedState == null ? null : loadedState.clone());
+                }
+                return new EntitySavepoint(session.doReturningWork(Connection::setSavepoint), managedEntities);
+            } catch (HibernateException | PersistenceException e) {
+                throw new CannotCreateTransactionException("Could not create JDBC savepoint", e);
+            }
+        }
+
+        @Override
+        public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+            var entitySavepoint = (EntitySavepoint) savepoint;
+            try {
+                session.flush();
+            } catch (HibernateException | PersistenceException e) {
+                session.getTransaction().setRollbackOnly();
+                throw new TransactionSystemException("Could not flush before rolling back to JDBC savepoint, the session is no longer usable", e);
+            }
+            try {
+                session.doWork(connection -> connection.rollback(entitySavepoint.savepoint()));
+            } catch (HibernateException | PersistenceException e) {
+                throw new TransactionSystemException("Could not roll back to JDBC savepoint", e);
+            }
+            try {
+                resetEntities(entitySavepoint.managedEntities());
+            } catch (HibernateException | PersistenceException e) {
+                session.getTransaction().setRollbackOnly();
+                throw new TransactionSystemException("Could not reset the persistence context to the JDBC savepoint", e);
+            }
+        }
+
+        @Override
+        public void releaseSavepoint(Object savepoint) throws TransactionException {
+            // savepoint内のinsert/updateの失敗はsavepointを抜ける前に例外にする(外側のcommit時まで遅らせない)
+            try {
+                session.flush();
+            } catch (HibernateException | PersistenceException e) {
+                throw new TransactionSystemException("Could not flush before releasing JDBC savepoint", e);
+            }
+            try {
+                session.doWork(connection -> connection.releaseSavepoint(((EntitySavepoint) savepoint).savepoint()));
+            } catch (HibernateException | PersistenceException e) {
+                log.debug("Could not explicitly release JDBC savepoint", e);
+            }
+        }
+
+        // DBはsavepointの時点に戻ったので、永続化コンテキストもそれに合わせる
+        private void resetEntities(Map<Object, Object[]> managedEntities) {
+            for (var entry : session.getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+                var entity = entry.getKey();
+                var entityEntry = entry.getValue();
+                if (!managedEntities.containsKey(entity)) {
+                    // savepoint以降にpersistされた行はもうない
+                    session.detach(entity);
+                } else if (entityEntry.getStatus() == Status.DELETED || entityEntry.getStatus() == Status.GONE) {
+                    // 削除は取り消されたが、削除済みのエンティティは読み直せないので次に読んだ時にロードさせる
+                    session.detach(entity);
+                } else if (!Arrays.deepEquals(entityEntry.getLoadedState(), managedEntities.get(entity))) {
+                    session.refresh(entity);
+                }
+            }
+        }
+    }
+}
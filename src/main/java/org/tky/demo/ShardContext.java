@@ -0,0 +1,80 @@
+package org.tky.demo;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// スレッドで実行中のトランザクションがどのshardに接続するかを保持する。
+// 一度決まったshardはトランザクションの終了まで変わらず、別のshardのユーザーにアクセスしようとするとCrossShardTransactionExceptionになる。
+// IDの上位ビットにshard番号を入れるので、shard 0のIDはシーケンスの値そのまま(シャーディング前のIDと同じ)になる。
+public final class ShardContext {
+
+    static final int SHARD_SHIFT = 48;
+    // IDの上位ビットに入るshard番号の上限
+    static final int MAX_SHARDS = 1 << (Long.SIZE - 1 - SHARD_SHIFT);
+    private static final long LOCAL_ID_MASK = (1L << SHARD_SHIFT) - 1;
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+    private static final TransactionSynchronization CLEAR = new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+            CURRENT.remove();
+        }
+    };
+    private static final Binding NOOP = () -> {
+    };
+
+    private ShardContext() {
+    }
+
+    static long encodeId(int shard, long localId) {
+        if (localId > LOCAL_ID_MASK) {
+            throw new IllegalStateException("local id overflows " + SHARD_SHIFT + " bits: " + localId);
+        }
+        return (long) shard << SHARD_SHIFT | localId;
+    }
+
+    static int shardOf(long id) {
+        return (int) (id >>> SHARD_SHIFT);
+    }
+
+    // トランザクションで既に決まっているshard。まだ決まっていなければnull
+    static Integer current() {
+        return CURRENT.get();
+    }
+
+    // 接続の取得時に呼ばれる。まだshardが決まっていないトランザクションは、この時点でshard 0に固定する。
+    // 新しいユーザーをshardに分散させるのはShardedIdGeneratorだけで、IDで振り分けない処理はshard 0を使う
+    static int resolve() {
+        Integer current = CURRENT.get();
+        if (current != null) {
+            return current;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            bind(0);
+        }
+        return 0;
+    }
+
+    // トランザクション内ではトランザクションの終了まで、トランザクション外では返したBindingをcloseするまでshardを固定する。
+    // shardが設定されているかどうかは呼び出し元(shard数を持つBean)で確認する
+    static Binding bind(int shard) {
+        Integer current = CURRENT.get();
+        if (current != null) {
+            if (current != shard) {
+                throw new CrossShardTransactionException("transaction is bound to shard " + current + " and cannot access shard " + shard);
+            }
+            return NOOP;
+        }
+        CURRENT.set(shard);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(CLEAR);
+            return NOOP;
+        }
+        return CURRENT::remove;
+    }
+
+    interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,51 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.List;
+
+// shard 1以降のコネクションプール。読み取りも書き込みも同じプールを使う。
+// shard数はstaticに持たず、このBeanから各コンポーネントに渡す(テストなどで1つのJVMに複数のコンテキストがあっても互いに影響しない)
+public class ShardPools implements DisposableBean {
+
+    private final List<HikariDataSource> pools;
+
+    public ShardPools(List<HikariDataSource> pools) {
+        if (pools.size() + 1 > ShardContext.MAX_SHARDS) {
+            throw new IllegalArgumentException("unsupported shard count: " + (pools.size() + 1));
+        }
+        this.pools = pools;
+    }
+
+    public List<HikariDataSource> pools() {
+        return pools;
+    }
+
+    // shard 0(spring.datasource)を含めたshard数
+    public int shardCount() {
+        return pools.size() + 1;
+    }
+
+    // 設定されていないshardのIDが指定された場合
+    public void checkConfigured(int shard) {
+        if (shard >= shardCount()) {
+            throw new CrossShardTransactionException("shard " + shard + " is not configured (" + shardCount() + " shards)");
+        }
+    }
+
+    // Idempotency-Keyの行とそのリクエストで作るユーザーが同じshardに書かれるように、接続を取得する前にキーでshardを決める。
+    // 再送時も同じshardからキーを引くので、キーからshardへの対応はここだけで決める
+    public void bindKey(String key) {
+        ShardContext.bind(Math.floorMod(key.hashCode(), shardCount()));
+    }
+
+    public boolean isEmpty() {
+        return pools.isEmpty();
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(HikariDataSource::close);
+    }
+}
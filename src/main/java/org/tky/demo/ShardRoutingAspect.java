@@ -0,0 +1,34 @@
+package org.tky.demo;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+// IDでユーザーを指定するUserRepositoryのメソッドを、IDのshardに振り分ける。
+// キャッシュに当たった場合も同じく判定されるよう、@Cacheableより外側で実行する。
+@Aspect
+@Component
+@Order(ShardRoutingAspect.ORDER)
+public class ShardRoutingAspect {
+
+    static final int ORDER = Ordered.LOWEST_PRECEDENCE - 30;
+
+    private final ShardPools shardPools;
+
+    public ShardRoutingAspect(ShardPools shardPools) {
+        this.shardPools = shardPools;
+    }
+
+    @Around("execution(* org.tky.demo.UserRepository.findById(..)) || execution(* org.tky.demo.UserRepository.updateName(..))")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable {
+        long id = ((Number) joinPoint.getArgs()[0]).longValue();
+        int shard = ShardContext.shardOf(id);
+        shardPools.checkConfigured(shard);
+        try (var binding = ShardContext.bind(shard)) {
+            return joinPoint.proceed();
+        }
+    }
+}
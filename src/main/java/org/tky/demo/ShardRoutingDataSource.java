@@ -0,0 +1,28 @@
+package org.tky.demo;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+
+// ShardContextで決まったshardのデータソースから接続する。LazyConnectionDataSourceProxyの下に置くので、
+// 接続を取得するのはトランザクション内で最初にSQLを実行する時点(shardが決まった後)になる。
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    public ShardRoutingDataSource(List<? extends DataSource> shards) {
+        var targets = new HashMap<Object, Object>();
+        for (int i = 0; i < shards.size(); i++) {
+            targets.put(i, shards.get(i));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(0));
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.resolve();
+    }
+}
@@ -0,0 +1,84 @@
+package org.tky.demo;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import java.lang.reflect.Member;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// トランザクションのshardのシーケンスをnextvalし、その値から始まるallocationSize個のIDをshard毎にメモリ上で払い出す(pooled-lo)。
+// シーケンスはallocationSizeずつ進むので、他の払い出し方(列のデフォルト値のnextvalなど)とIDが重なることはない。
+// まだshardが決まっていないトランザクションで新しいユーザーを作る場合は、ここでラウンドロビンでshardを決める。
+public class ShardedIdGenerator implements IdentifierGenerator {
+
+    // DataSourceConfigがShardPoolsのshard数をHibernateの設定として渡す
+    static final String SHARD_COUNT_SETTING = "demo.sharding.shard-count";
+
+    private final String nextvalSql;
+    private final int allocationSize;
+    private final int shardCount;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+    public ShardedIdGenerator(ShardedSequence config, Member member, CustomIdGeneratorCreationContext context) {
+        this.nextvalSql = "select nextval('" + config.sequenceName() + "')";
+        this.allocationSize = config.allocationSize();
+        var settings = context.getServiceRegistry().requireService(ConfigurationService.class).getSettings();
+        this.shardCount = ConfigurationHelper.getInt(SHARD_COUNT_SETTING, settings, 1);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        int shard = shardOfNewUser();
+        var pool = pools.computeIfAbsent(shard, s -> new Pool());
+        long localId;
+        synchronized (pool) {
+            if (pool.next == pool.limit) {
+                // セッションの接続はshardが決まった後に取得されるので、このnextvalは同じshardで実行される
+                long low = nextval(session);
+                pool.next = low;
+                pool.limit = low + allocationSize;
+            }
+            localId = pool.next++;
+        }
+        return ShardContext.encodeId(shard, localId);
+    }
+
+    private int shardOfNewUser() {
+        Integer current = ShardContext.current();
+        if (current != null) {
+            return current;
+        }
+        int shard = Math.floorMod(next.getAndIncrement(), shardCount);
+        // persistはトランザクション内(SimpleJpaRepository.saveは@Transactional)なので、固定はトランザクションの終了時に解除される
+        ShardContext.bind(shard);
+        return shard;
+    }
+
+    private long nextval(SharedSessionContractImplementor session) {
+        JdbcCoordinator jdbcCoordinator = session.getJdbcCoordinator();
+        var statement = jdbcCoordinator.getStatementPreparer().prepareStatement(nextvalSql);
+        try {
+            var resultSet = jdbcCoordinator.getResultSetReturn().extract(statement, nextvalSql);
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not get next sequence value", nextvalSql);
+        } finally {
+            jdbcCoordinator.getLogicalConnection().getResourceRegistry().release(statement);
+            jdbcCoordinator.afterStatementExecution();
+        }
+    }
+
+    private static final class Pool {
+        private long next;
+        private long limit;
+    }
+}
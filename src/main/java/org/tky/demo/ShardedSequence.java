@@ -0,0 +1,19 @@
+package org.tky.demo;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// shard毎のシーケンスからallocationSize単位で払い出したIDに、shard番号を付けて採番する
+@IdGeneratorType(ShardedIdGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface ShardedSequence {
+
+    String sequenceName();
+
+    int allocationSize() default 50;
+}
@@ -0,0 +1,20 @@
+package org.tky.demo;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+// shard 0はspring.datasource.*のプライマリで、shards[i]がshard i+1になる。空の場合はシャーディングしない
+@ConfigurationProperties("demo.sharding")
+public record ShardingProperties(@DefaultValue List<Shard> shards) {
+
+    public record Shard(
+            String url,
+            String username,
+            String password,
+            @DefaultValue("10") int maximumPoolSize,
+            @DefaultValue("1s") Duration connectionTimeout) {
+    }
+}
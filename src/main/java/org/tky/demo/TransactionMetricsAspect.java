@@ -0,0 +1,154 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionAttributeSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// TransactionInterceptorの外側で、トランザクション境界となるメソッド毎に開始からcommit/rollbackまでの時間を計測する。
+// propagationはメソッドのトランザクション属性と呼び出し時のトランザクションの有無から決め、
+// 既存のトランザクションに参加した呼び出しは joined、savepointを作る呼び出しは nested、トランザクションなしで実行される呼び出しは none とする。
+@Aspect
+@Component
+@Order(TransactionMetricsAspect.ORDER)
+public class TransactionMetricsAspect {
+
+    static final int ORDER = Ordered.LOWEST_PRECEDENCE - 10;
+
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final MeterRegistry meterRegistry;
+    private final TransactionTimeline timeline;
+    private final TransactionAttributeSource transactionAttributeSource;
+    private final Map<Method, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    public TransactionMetricsAspect(MeterRegistry meterRegistry, TransactionTimeline timeline, TransactionAttributeSource transactionAttributeSource) {
+        this.meterRegistry = meterRegistry;
+        this.timeline = timeline;
+        this.transactionAttributeSource = transactionAttributeSource;
+    }
+
+    @Around("@within(jakarta.transaction.Transactional) || @annotation(jakarta.transaction.Transactional)"
+            + " || @within(org.springframework.transaction.annotation.Transactional) || @annotation(org.springframework.transaction.annotation.Transactional)"
+            + " || execution(* org.springframework.data.repository.CrudRepository+.save*(..))")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        var method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        var methodMeters = meters.computeIfAbsent(method, this::register);
+        var attribute = transactionAttributeSource.getTransactionAttribute(method, joinPoint.getTarget() == null ? null : joinPoint.getTarget().getClass());
+        var propagation = propagation(attribute, TransactionSynchronizationManager.isActualTransactionActive());
+        var outcomes = methodMeters.outcomes.get(propagation);
+        if (propagation == Propagation.JOINED) {
+            timeline.record(TransactionTimeline.EventType.JOIN, methodMeters.timelineNameId);
+        }
+        var depth = DEPTH.get();
+        methodMeters.depth.record(++depth[0]);
+        long start = System.nanoTime();
+        try {
+            var result = joinPoint.proceed();
+            outcomes.succeeded.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Throwable e) {
+            // rollbackOnの対象外の例外(チェック例外など)ではcommitされている
+            var rolledBack = attribute == null || propagation == Propagation.JOINED || propagation == Propagation.NONE || attribute.rollbackOn(e);
+            (rolledBack ? outcomes.failed : outcomes.succeeded).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (propagation == Propagation.JOINED && isRollbackOnly()) {
+                methodMeters.rollbackOnly.increment();
+            }
+            throw e;
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    // 属性が取れない場合(トランザクション境界でないメソッド)は、以前と同じく呼び出し時のトランザクションの有無で決める
+    static Propagation propagation(TransactionAttribute attribute, boolean active) {
+        if (attribute == null) {
+            return active ? Propagation.JOINED : Propagation.NEW;
+        }
+        return switch (attribute.getPropagationBehavior()) {
+            case TransactionDefinition.PROPAGATION_REQUIRES_NEW -> Propagation.NEW;
+            case TransactionDefinition.PROPAGATION_NOT_SUPPORTED, TransactionDefinition.PROPAGATION_NEVER -> Propagation.NONE;
+            case TransactionDefinition.PROPAGATION_NESTED -> active ? Propagation.NESTED : Propagation.NEW;
+            case TransactionDefinition.PROPAGATION_SUPPORTS, TransactionDefinition.PROPAGATION_MANDATORY -> active ? Propagation.JOINED : Propagation.NONE;
+            default -> active ? Propagation.JOINED : Propagation.NEW;
+        };
+    }
+
+    private static boolean isRollbackOnly() {
+        try {
+            return TransactionAspectSupport.currentTransactionStatus().isRollbackOnly();
+        } catch (NoTransactionException e) {
+            return false;
+        }
+    }
+
+    private MethodMeters register(Method method) {
+        var name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        var outcomes = new EnumMap<Propagation, Outcomes>(Propagation.class);
+        for (var propagation : Propagation.values()) {
+            outcomes.put(propagation, new Outcomes(
+                    timer(name, propagation.tag, propagation.succeeded),
+                    timer(name, propagation.tag, propagation.failed)));
+        }
+        return new MethodMeters(
+                outcomes,
+                Counter.builder("demo.transaction.rollback.only")
+                        .description("Participating transactions that marked the enclosing transaction rollback-only")
+                        .tag("method", name)
+                        .register(meterRegistry),
+                DistributionSummary.builder("demo.transaction.propagation.depth")
+                        .description("Number of nested transactional boundaries on the call stack")
+                        .tag("method", name)
+                        .register(meterRegistry),
+                timeline.nameId(method.getDeclaringClass().getName() + "." + method.getName()));
+    }
+
+    private Timer timer(String method, String propagation, String outcome) {
+        return Timer.builder("demo.transaction")
+                .description("Time from entering a transactional boundary until it commits or rolls back")
+                .tags("method", method, "propagation", propagation, "outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    enum Propagation {
+        NEW("new", "commit", "rollback"),
+        JOINED("joined", "completed", "failed"),
+        NESTED("nested", "commit", "rollback"),
+        NONE("none", "completed", "failed");
+
+        final String tag;
+        final String succeeded;
+        final String failed;
+
+        Propagation(String tag, String succeeded, String failed) {
+            this.tag = tag;
+            this.succeeded = succeeded;
+            this.failed = failed;
+        }
+    }
+
+    private record Outcomes(Timer succeeded, Timer failed) {
+    }
+
+    private record MethodMeters(Map<Propagation, Outcomes> outcomes, Counter rollbackOnly, DistributionSummary depth, int timelineNameId) {
+    }
+}
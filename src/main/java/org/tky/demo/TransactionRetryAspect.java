@@ -0,0 +1,142 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// TransactionalUserServiceのトランザクション境界の外側で、serialization failure(40001)とdeadlock(40P01)の場合にトランザクション全体をやり直す。
+// 待ち時間はfull jitterの指数バックオフ。成功で貯まりやり直しで減るトークンがmax-tokensの半分を切ったら、やり直さずに諦める(retry budget)。
+@Slf4j
+@Aspect
+@Component
+@Order(TransactionRetryAspect.ORDER)
+public class TransactionRetryAspect {
+
+    static final int ORDER = Ordered.LOWEST_PRECEDENCE - 20;
+
+    private static final Set<String> RETRYABLE_SQL_STATES = Set.of("40001", "40P01");
+    private static final int TOKEN_SCALE = 1000;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxTokens;
+    private final int tokenRatio;
+    private final AtomicInteger tokens;
+    private final Map<Method, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    public TransactionRetryAspect(MeterRegistry meterRegistry,
+                                  @Value("${demo.transaction-retry.enabled}") boolean enabled,
+                                  @Value("${demo.transaction-retry.max-attempts}") int maxAttempts,
+                                  @Value("${demo.transaction-retry.initial-backoff-millis}") long initialBackoffMillis,
+                                  @Value("${demo.transaction-retry.max-backoff-millis}") long maxBackoffMillis,
+                                  @Value("${demo.transaction-retry.max-tokens}") int maxTokens,
+                                  @Value("${demo.transaction-retry.token-ratio}") double tokenRatio) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxTokens = maxTokens * TOKEN_SCALE;
+        this.tokenRatio = (int) (tokenRatio * TOKEN_SCALE);
+        this.tokens = new AtomicInteger(this.maxTokens);
+        Gauge.builder("demo.transaction.retry.budget", tokens, t -> (double) t.get() / TOKEN_SCALE)
+                .description("Tokens left in the retry budget; retries stop below half of the maximum")
+                .register(meterRegistry);
+    }
+
+    static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && RETRYABLE_SQL_STATES.contains(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Around("within(org.tky.demo.TransactionalUserService) && execution(public * *(..))")
+    public Object retry(ProceedingJoinPoint joinPoint) throws Throwable {
+        var method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        // 既存のトランザクションに参加する呼び出しは、そのトランザクションを始めた側でやり直す。
+        // NOT_SUPPORTEDのメソッドは中で複数回commitするので、全体をやり直すとcommit済みの分が重複する
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive() || isNotSupported(method)) {
+            return joinPoint.proceed();
+        }
+        var methodMeters = meters.computeIfAbsent(method, this::register);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                var result = joinPoint.proceed();
+                tokens.getAndUpdate(t -> Math.min(maxTokens, t + tokenRatio));
+                return result;
+            } catch (Throwable e) {
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    methodMeters.maxAttemptsExceeded.increment();
+                    throw e;
+                }
+                if (tokens.updateAndGet(t -> Math.max(0, t - TOKEN_SCALE)) <= maxTokens / 2) {
+                    methodMeters.budgetExhausted.increment();
+                    throw e;
+                }
+                methodMeters.retries.increment();
+                long backoff = ThreadLocalRandom.current().nextLong(Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20)) + 1);
+                log.debug("retry {} after {} ms (attempt {}): {}", methodMeters.name, backoff, attempt, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean isNotSupported(Method method) {
+        var transactional = method.getAnnotation(Transactional.class);
+        return transactional != null && transactional.value() == Transactional.TxType.NOT_SUPPORTED;
+    }
+
+    private MethodMeters register(Method method) {
+        var name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        return new MethodMeters(name,
+                Counter.builder("demo.transaction.retries")
+                        .description("Transactions re-run after a serialization failure or deadlock")
+                        .tag("method", name)
+                        .register(meterRegistry),
+                giveUps(name, "max_attempts"),
+                giveUps(name, "budget"));
+    }
+
+    private Counter giveUps(String method, String reason) {
+        return Counter.builder("demo.transaction.retry.giveups")
+                .description("Serialization failures and deadlocks returned to the caller without another attempt")
+                .tags("method", method, "reason", reason)
+                .register(meterRegistry);
+    }
+
+    private record MethodMeters(String name, Counter retries, Counter maxAttemptsExceeded, Counter budgetExhausted) {
+    }
+}
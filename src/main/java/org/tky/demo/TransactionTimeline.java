@@ -0,0 +1,161 @@
+package org.tky.demo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// リクエスト毎のトランザクションのイベントを固定長のリングバッファに記録する。
+// 各イベントはプリミティブ配列のスロットに書き込むだけなので、記録時にオブジェクトを生成しない。
+// スロット毎のシーケンス番号を書き込みの前後で更新し、読み出し側は前後で一致したものだけを採用する。
+// 書き込み側はシーケンス番号をCASでWRITINGにしてスロットを確保するので、リングを1周して同じスロットに来た書き込み同士が混ざることはない。
+// 確保できなかった(別の書き込みが使用中の)スロットは待たずにそのイベントを捨てるので、記録するスレッドが他のスレッドを待つことはない。
+@Component
+public class TransactionTimeline {
+
+    public enum EventType {
+        REQUEST_START, BEGIN, JOIN, SAVEPOINT, COMMIT, ROLLBACK, REQUEST_END
+    }
+
+    public record Event(long sequence, long requestId, long nanos, EventType type, String name) {
+    }
+
+    public record RequestEvent(EventType type, String name, long offsetMicros) {
+    }
+
+    public record RequestTimeline(long requestId, String endpoint, long durationMicros, List<RequestEvent> events) {
+    }
+
+    private static final EventType[] EVENT_TYPES = EventType.values();
+    private static final long WRITING = Long.MIN_VALUE;
+    private static final long EMPTY = -1;
+    private static final ThreadLocal<long[]> CURRENT_REQUEST = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final long[] requests;
+    private final long[] nanos;
+    private final byte[] types;
+    private final int[] nameIds;
+    private final Map<String, Integer> nameIndex = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    public TransactionTimeline(@Value("${demo.transaction-timeline.capacity}") int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.stamps = new AtomicLongArray(capacity);
+        this.requests = new long[capacity];
+        this.nanos = new long[capacity];
+        this.types = new byte[capacity];
+        this.nameIds = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            stamps.set(i, EMPTY);
+        }
+        nameId("");
+    }
+
+    public int nameId(String name) {
+        var key = name == null ? "" : name;
+        var id = nameIndex.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return nameIndex.computeIfAbsent(key, k -> {
+                names.add(k);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    public long startRequest(int nameId) {
+        long requestId = requestIds.incrementAndGet();
+        CURRENT_REQUEST.get()[0] = requestId;
+        record(EventType.REQUEST_START, nameId);
+        return requestId;
+    }
+
+    public void endRequest(int nameId) {
+        record(EventType.REQUEST_END, nameId);
+        CURRENT_REQUEST.get()[0] = 0;
+    }
+
+    public void record(EventType type, int nameId) {
+        long sequence = cursor.getAndIncrement();
+        int index = (int) (sequence & mask);
+        long stamp;
+        do {
+            stamp = stamps.get(index);
+            if (stamp == WRITING || stamp >= sequence) {
+                // 前の周の書き込みがまだ終わっていないか、次の周の書き込みに追い越された。
+                // 待つと書き込み中のスレッドが止まっている間(プリエンプトや仮想スレッドのアンマウント)こちらも止まるので、
+                // このイベントはリングから溢れたものとして捨てる
+                return;
+            }
+        } while (!stamps.compareAndSet(index, stamp, WRITING));
+        // 後続のスロットへのストアがWRITINGより先に見えないようにする
+        VarHandle.storeStoreFence();
+        requests[index] = CURRENT_REQUEST.get()[0];
+        nanos[index] = System.nanoTime();
+        types[index] = (byte) type.ordinal();
+        nameIds[index] = nameId;
+        stamps.setRelease(index, sequence);
+    }
+
+    public List<Event> snapshot() {
+        long end = cursor.get();
+        long start = Math.max(0, end - (mask + 1));
+        var events = new ArrayList<Event>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) (sequence & mask);
+            if (stamps.getAcquire(index) != sequence) {
+                continue;
+            }
+            var event = new Event(sequence, requests[index], nanos[index], EVENT_TYPES[types[index]], names.get(nameIds[index]));
+            // スロットの読み込みが2回目のシーケンス番号の読み込みより後に並べ替えられないようにする
+            VarHandle.loadLoadFence();
+            if (stamps.get(index) == sequence) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    // バッファに開始と終了の両方が残っているリクエストを新しい順に返す
+    public List<RequestTimeline> requests() {
+        var byRequest = new LinkedHashMap<Long, List<Event>>();
+        for (var event : snapshot()) {
+            if (event.requestId() != 0) {
+                byRequest.computeIfAbsent(event.requestId(), id -> new ArrayList<>()).add(event);
+            }
+        }
+        var timelines = new ArrayList<RequestTimeline>();
+        for (var events : byRequest.values()) {
+            var first = events.get(0);
+            var last = events.get(events.size() - 1);
+            if (first.type() != EventType.REQUEST_START || last.type() != EventType.REQUEST_END) {
+                continue;
+            }
+            var requestEvents = events.stream()
+                    .filter(event -> event != first && event != last)
+                    .map(event -> new RequestEvent(event.type(), event.name(), (event.nanos() - first.nanos()) / 1_000))
+                    .toList();
+            timelines.add(new RequestTimeline(first.requestId(), last.name(), (last.nanos() - first.nanos()) / 1_000, requestEvents));
+        }
+        timelines.sort(Comparator.comparingLong(RequestTimeline::requestId).reversed());
+        return timelines;
+    }
+}
@@ -0,0 +1,36 @@
+package org.tky.demo;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Comparator;
+import java.util.List;
+
+@RestController
+@RequestMapping("/transactions/timeline")
+public class TransactionTimelineController {
+
+    private final TransactionTimeline timeline;
+
+    public TransactionTimelineController(TransactionTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<TransactionTimeline.RequestTimeline>> getRecentRequests(@RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(timeline.requests().stream().limit(limit).toList());
+    }
+
+    @GetMapping("/slow")
+    public ResponseEntity<List<TransactionTimeline.RequestTimeline>> getSlowRequests(@RequestParam(name = "threshold_millis", defaultValue = "100") long thresholdMillis,
+                                                                                     @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(timeline.requests().stream()
+                .filter(request -> request.durationMicros() >= thresholdMillis * 1_000)
+                .sorted(Comparator.comparingLong(TransactionTimeline.RequestTimeline::durationMicros).reversed())
+                .limit(limit)
+                .toList());
+    }
+}
@@ -0,0 +1,52 @@
+package org.tky.demo;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class TransactionTimelineFilter extends OncePerRequestFilter {
+
+    private final TransactionTimeline timeline;
+    private final int unknownEndpoint;
+    // HTTPメソッド -> マッチしたパターン -> nameId。リクエスト毎に文字列を連結しないようにキャッシュする
+    private final Map<String, Map<String, Integer>> endpointIds = new ConcurrentHashMap<>();
+
+    public TransactionTimelineFilter(TransactionTimeline timeline) {
+        this.timeline = timeline;
+        this.unknownEndpoint = timeline.nameId("");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        timeline.startRequest(unknownEndpoint);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            // URIにはIDが含まれるので、記録するのはマッチしたパターン(/users/{id}など)
+            var pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            timeline.endRequest(pattern instanceof String p ? endpointId(request.getMethod(), p) : unknownEndpoint);
+        }
+    }
+
+    private int endpointId(String method, String pattern) {
+        var byPattern = endpointIds.get(method);
+        if (byPattern == null) {
+            byPattern = endpointIds.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+        var id = byPattern.get(pattern);
+        if (id == null) {
+            id = timeline.nameId(method + " " + pattern);
+            byPattern.putIfAbsent(pattern, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,36 @@
+package org.tky.demo;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+@Component
+public class TransactionTimelineListener implements TransactionExecutionListener {
+
+    private final TransactionTimeline timeline;
+
+    public TransactionTimelineListener(TransactionTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    @Override
+    public void afterBegin(TransactionExecution transaction, Throwable beginFailure) {
+        if (beginFailure == null) {
+            record(transaction.isNested() ? TransactionTimeline.EventType.SAVEPOINT : TransactionTimeline.EventType.BEGIN, transaction);
+        }
+    }
+
+    @Override
+    public void afterCommit(TransactionExecution transaction, Throwable commitFailure) {
+        record(commitFailure == null ? TransactionTimeline.EventType.COMMIT : TransactionTimeline.EventType.ROLLBACK, transaction);
+    }
+
+    @Override
+    public void afterRollback(TransactionExecution transaction, Throwable rollbackFailure) {
+        record(TransactionTimeline.EventType.ROLLBACK, transaction);
+    }
+
+    private void record(TransactionTimeline.EventType type, TransactionExecution transaction) {
+        timeline.record(type, timeline.nameId(transaction.getTransactionName()));
+    }
+}
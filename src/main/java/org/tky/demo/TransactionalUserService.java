@@ -1,9 +1,22 @@
 package org.tky.demo;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -12,13 +25,29 @@ import java.util.List;
 public class TransactionalUserService {
 
     private final UserRepository userRepository;
+    private final UserCache userCache;
     private final AnotherTransactionalService anotherTransactionalService;
     private final NonTransactionalUserService nonTransactionalUserService;
+    private final NestedAnotherTransactionalService nestedAnotherTransactionalService;
+    private final TransactionTemplate transactionTemplate;
+    private final IdempotencyKeyStore idempotencyKeyStore;
+    private final ShardPools shardPools;
+    private final ObjectMapper objectMapper;
+    private final int bulkChunkSize;
 
-    public TransactionalUserService(UserRepository userRepository, AnotherTransactionalService anotherTransactionalService, NonTransactionalUserService nonTransactionalUserService) {
+    public TransactionalUserService(UserRepository userRepository, UserCache userCache, AnotherTransactionalService anotherTransactionalService, NonTransactionalUserService nonTransactionalUserService,
+                                    NestedAnotherTransactionalService nestedAnotherTransactionalService, TransactionTemplate transactionTemplate, IdempotencyKeyStore idempotencyKeyStore,
+                                    ShardPools shardPools, ObjectMapper objectMapper, @Value("${demo.bulk.chunk-size}") int bulkChunkSize) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
         this.anotherTransactionalService = anotherTransactionalService;
         this.nonTransactionalUserService = nonTransactionalUserService;
+        this.nestedAnotherTransactionalService = nestedAnotherTransactionalService;
+        this.transactionTemplate = transactionTemplate;
+        this.idempotencyKeyStore = idempotencyKeyStore;
+        this.shardPools = shardPools;
+        this.objectMapper = objectMapper;
+        this.bulkChunkSize = bulkChunkSize;
     }
 
     public User createUser(String name) {
@@ -26,6 +55,7 @@ public class TransactionalUserService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         return user;
     }
@@ -35,6 +65,7 @@ public class TransactionalUserService {
         var user = new User(name);
         log.info("start save: {}", user);
         userRepository.save(user);
+        userCache.put(user);
         log.info("end save: {}", user);
         if (true) {
             throw new RuntimeException("rollback test");
@@ -47,6 +78,7 @@ public class TransactionalUserService {
         var user1 = new User(name1);
         log.info("start save: {}", user1);
         userRepository.save(user1);
+        userCache.put(user1);
         log.info("end save: {}", user1);
         var user2 = anotherTransactionalService.createUser(name2);
         return List.of(user1, user2);
@@ -56,6 +88,7 @@ public class TransactionalUserService {
         var user1 = new User(name1);
         log.info("start save: {}", user1);
         userRepository.save(user1);
+        userCache.put(user1);
         log.info("end save: {}", user1);
         var user2 = anotherTransactionalService.createUser(name2);
         if (true) {
@@ -69,6 +102,7 @@ public class TransactionalUserService {
         var user1 = new User(name1);
         log.info("start save: {}", user1);
         userRepository.save(user1);
+        userCache.put(user1);
         log.info("end save: {}", user1);
         var user2 = anotherTransactionalService.createUserAndError(name2);
         return List.of(user1, user2);
@@ -79,6 +113,7 @@ public class TransactionalUserService {
         var user1 = new User(name1);
         log.info("start save: {}", user1);
         userRepository.save(user1);
+        userCache.put(user1);
         log.info("end save: {}", user1);
         try {
             var user2 = anotherTransactionalService.createUserAndError(name2);
@@ -87,11 +122,28 @@ public class TransactionalUserService {
         }
         return List.of(user1, user1);
     }
+
+    public List<User> createCoupleOfUsersAndErrorNestedServiceAndCatch(String name1, String name2) {
+        log.info("start service");
+        var user1 = new User(name1);
+        log.info("start save: {}", user1);
+        userRepository.save(user1);
+        userCache.put(user1);
+        log.info("end save: {}", user1);
+        try {
+            var user2 = nestedAnotherTransactionalService.createUserAndError(name2);
+        } catch (RuntimeException e) {
+            log.error("catch error");
+        }
+        return List.of(user1);
+    }
+
     public List<User> createCoupleOfUsersAndErrorFromNonTransactionalService(String name1, String name2) {
         log.info("start service");
         var user1 = new User(name1);
         log.info("start save: {}", user1);
         userRepository.save(user1);
+        userCache.put(user1);
         log.info("end save: {}", user1);
         try {
             var user2 = nonTransactionalUserService.createUserAndError(name2);
@@ -101,4 +153,97 @@ public class TransactionalUserService {
         return List.of(user1, user1);
     }
 
+    // 同じ行を同時に更新すると、REPEATABLE_READでは後から更新しようとした方が40001(serialization failure)で失敗する
+    @org.springframework.transaction.annotation.Transactional(isolation = Isolation.REPEATABLE_READ)
+    public int renameUser(long id, String name) {
+        log.info("start service");
+        var updated = userRepository.updateName(id, name);
+        userCache.evict(id);
+        log.info("end service");
+        return updated;
+    }
+
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public List<User> createUsers(List<String> names) {
+        return createUsers(names, bulkChunkSize);
+    }
+
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public List<User> createUsers(List<String> names, int chunkSize) {
+        return createUsers(names, Integer.valueOf(chunkSize), null);
+    }
+
+    // chunk毎に別トランザクションでcommitする。chunk内のinsertはhibernate.jdbc.batch_size毎にまとめて送られる。
+    // 大量の新規ユーザーでホットなエントリを追い出さないよう、キャッシュには載せない(読み込み時に載る)。
+    // chunkSizeがnullの場合はdemo.bulk.chunk-size。
+    // idempotencyKeyがある場合は「キー#chunkの開始位置」をchunkのトランザクションでidempotency_keysに記録し、
+    // 途中のchunkで失敗した後に同じキーで再送されても、commit済みのchunkは作り直さずに記録した結果を返す。
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public List<User> createUsers(List<String> names, Integer chunkSize, String idempotencyKey) {
+        int size = chunkSize == null ? bulkChunkSize : chunkSize;
+        if (size < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "chunk size must be positive: " + size);
+        }
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || chunkKey(idempotencyKey, names.size()).length() > IdempotencyKeyFilter.MAX_KEY_LENGTH)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, IdempotencyKeyFilter.HEADER + " is blank or too long for a bulk request");
+        }
+        log.info("start bulk service: {} users, chunk size {}", names.size(), size);
+        var users = new ArrayList<User>(names.size());
+        for (int from = 0; from < names.size(); from += size) {
+            var chunk = names.subList(from, Math.min(from + size, names.size()));
+            users.addAll(idempotencyKey == null
+                    ? transactionTemplate.execute(status -> userRepository.saveAll(chunk.stream().map(User::new).toList()))
+                    : createChunkOnce(chunkKey(idempotencyKey, from), chunk));
+            log.info("committed chunk: {} / {}", users.size(), names.size());
+        }
+        log.info("end bulk service");
+        return users;
+    }
+
+    private List<User> createChunkOnce(String chunkKey, List<String> chunk) {
+        var chunkHash = hash(chunk);
+        return transactionTemplate.execute(status -> {
+            shardPools.bindKey(chunkKey);
+            while (!idempotencyKeyStore.claim(chunkKey, chunkHash)) {
+                var existing = idempotencyKeyStore.find(chunkKey);
+                if (existing.isPresent()) {
+                    if (!MessageDigest.isEqual(existing.get().requestHash(), chunkHash)) {
+                        throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, IdempotencyKeyFilter.HEADER + " was already used for a different request");
+                    }
+                    return readUsers(existing.get().body());
+                }
+            }
+            var created = userRepository.saveAll(chunk.stream().map(User::new).toList());
+            idempotencyKeyStore.complete(chunkKey, new IdempotentResponse(chunkHash, HttpStatus.OK.value(), MediaType.APPLICATION_JSON_VALUE, writeUsers(created)));
+            return created;
+        });
+    }
+
+    private static String chunkKey(String idempotencyKey, int from) {
+        return idempotencyKey + "#" + from;
+    }
+
+    private static byte[] hash(List<String> chunk) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(String.join("\n", chunk).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] writeUsers(List<User> users) {
+        try {
+            return objectMapper.writeValueAsBytes(users);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<User> readUsers(byte[] body) {
+        try {
+            return List.of(objectMapper.readValue(body, User[].class));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package org.tky.demo;
 
 import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
@@ -9,13 +10,14 @@ import lombok.ToString;
 @Table(name = "users")
 @Getter
 @NoArgsConstructor
+@AllArgsConstructor
 @ToString
 public class User {
     public User(String name) {
         this.name = name;
     }
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @ShardedSequence(sequenceName = "users_id_seq", allocationSize = 50)
     private long id;
 
     @Column(name = "name", nullable = false)
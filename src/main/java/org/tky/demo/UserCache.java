@@ -0,0 +1,33 @@
+package org.tky.demo;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UserCache {
+
+    public static final String NAME = "users";
+
+    private final Cache cache;
+
+    public UserCache(CacheManager cacheManager) {
+        this.cache = cacheManager.getCache(NAME);
+    }
+
+    public void put(User user) {
+        cache.put(user.getId(), user);
+    }
+
+    public void evict(long id) {
+        cache.evict(id);
+    }
+
+    public UserCacheStats stats() {
+        var nativeCache = ((CaffeineCache) ((TransactionAwareCacheDecorator) cache).getTargetCache()).getNativeCache();
+        var stats = nativeCache.stats();
+        return new UserCacheStats(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(), nativeCache.estimatedSize());
+    }
+}
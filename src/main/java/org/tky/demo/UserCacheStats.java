@@ -0,0 +1,4 @@
+package org.tky.demo;
+
+public record UserCacheStats(long hitCount, long missCount, double hitRate, long evictionCount, long estimatedSize) {
+}
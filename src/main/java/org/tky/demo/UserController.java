@@ -1,10 +1,17 @@
 package org.tky.demo;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.UUID;
 
 @Slf4j
 @RestController
@@ -14,11 +21,48 @@ public class UserController {
     private final UserRepository userRepository;
     private final NonTransactionalUserService nonTransactionalUserService;
     private final TransactionalUserService transactionalUserService;
+    private final UserImportService userImportService;
+    private final UserCache userCache;
+    private final UserQueryService userQueryService;
+    private final GroupCommitUserService groupCommitUserService;
+    private final UserExportService userExportService;
 
-    public UserController(UserRepository userRepository, NonTransactionalUserService nonTransactionalUserService, TransactionalUserService transactionalUserService) {
+    public UserController(UserRepository userRepository, NonTransactionalUserService nonTransactionalUserService, TransactionalUserService transactionalUserService,
+                          UserImportService userImportService, UserCache userCache, UserQueryService userQueryService, GroupCommitUserService groupCommitUserService,
+                          UserExportService userExportService) {
         this.userRepository = userRepository;
         this.nonTransactionalUserService = nonTransactionalUserService;
         this.transactionalUserService = transactionalUserService;
+        this.userImportService = userImportService;
+        this.userCache = userCache;
+        this.userQueryService = userQueryService;
+        this.groupCommitUserService = groupCommitUserService;
+        this.userExportService = userExportService;
+    }
+
+    @GetMapping
+    public ResponseEntity<UserPage> getUserPage(@RequestParam(defaultValue = "0") long cursor, @RequestParam(defaultValue = "100") int size) {
+        return ResponseEntity.ok(userQueryService.findUsers(cursor, size));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<UserSearchPage> searchUsers(@RequestParam("q") String query, @RequestParam(defaultValue = "prefix") String mode,
+                                                      @RequestParam(defaultValue = "0") int page, @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(userQueryService.searchUsers(query, UserSearchMode.of(mode), page, size));
+    }
+
+    @GetMapping("/stream")
+    public void streamUsers(@RequestParam(defaultValue = "0") long cursor, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        userQueryService.writeUsers(cursor, response.getOutputStream());
+    }
+
+    @GetMapping("/export")
+    public void exportUsers(@RequestParam(name = "from_id", required = false) Long fromId, @RequestParam(name = "to_id", required = false) Long toId,
+                            @RequestParam(defaultValue = "false") boolean gzip, HttpServletResponse response) throws IOException, SQLException {
+        response.setContentType(gzip ? "application/gzip" : "text/csv");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=users.csv" + (gzip ? ".gz" : ""));
+        userExportService.export(fromId, toId, gzip, response.getOutputStream());
     }
 
     @GetMapping("{id}")
@@ -27,6 +71,11 @@ public class UserController {
         return ResponseEntity.ok(user);
     }
 
+    @GetMapping("/cache_stats")
+    public ResponseEntity<UserCacheStats> getCacheStats() {
+        return ResponseEntity.ok(userCache.stats());
+    }
+
     @PostMapping("/on_controller")
     public ResponseEntity<User> createUserOnController(@RequestBody UserForm userForm) {
         // saveが呼び出される時に自動的にトランザクションが開始され、完了後時自動的にcloseしてる。
@@ -95,7 +144,9 @@ public class UserController {
         // [nio-8080-exec-1] o.s.t.i.TransactionInterceptor           : Completing transaction for [org.springframework.data.jpa.repository.support.SimpleJpaRepository.save]
         // [nio-8080-exec-1] org.tky.demo.TransactionalUserService    : end save: User(id=13, name=John Doe)
         // [nio-8080-exec-1] o.s.t.i.TransactionInterceptor           : Completing transaction for [org.tky.demo.TransactionalUserService.createUser]
-        var user = transactionalUserService.createUser(userForm.getName());
+        var user = groupCommitUserService.isEnabled()
+                ? groupCommitUserService.createUser(userForm.getName())
+                : transactionalUserService.createUser(userForm.getName());
         return ResponseEntity.ok(user);
     }
 
@@ -259,6 +310,16 @@ public class UserController {
         return ResponseEntity.ok(users);
     }
 
+    @PostMapping("/create_couple_of_users_nested_rollback3")
+    public ResponseEntity<List<User>> createCoupleOfUsersNestedRollback3(@RequestBody UserForm userForm) {
+        // create_couple_of_users_rollback3と同じだが、2つめのserviceはPropagation.NESTEDでsavepoint上で実行される
+        // 2つめのserviceの中で例外をthrowし、その例外をcatchしている
+        // savepointまでrollbackされるのは2つめのデータだけで、最初のデータは保存される
+        // 外側のトランザクションはrollback-onlyにならないので、UnexpectedRollbackExceptionにもならない
+        var users = transactionalUserService.createCoupleOfUsersAndErrorNestedServiceAndCatch(userForm.getName() + "_1", userForm.getName() + "_2");
+        return ResponseEntity.ok(users);
+    }
+
     @PostMapping("/create_couple_of_users_rollback4")
     public ResponseEntity<List<User>> createCoupleOfUsersRollback4(@RequestBody UserForm userForm) {
         // 2つとも正常に保存される
@@ -282,4 +343,35 @@ public class UserController {
         var users = transactionalUserService.createCoupleOfUsersAndErrorFromNonTransactionalService(userForm.getName() + "_1", userForm.getName() + "_2");
         return ResponseEntity.ok(users);
     }
+
+    @PostMapping("{id}/rename")
+    public ResponseEntity<Void> renameUser(@PathVariable long id, @RequestBody UserForm userForm) {
+        var updated = transactionalUserService.renameUser(id, userForm.getName());
+        return updated == 0 ? ResponseEntity.notFound().build() : ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/bulk")
+    public ResponseEntity<List<User>> createUsersInBulk(@RequestBody List<UserForm> userForms, @RequestParam(name = "chunk_size", required = false) Integer chunkSize,
+                                                        @RequestHeader(name = IdempotencyKeyFilter.HEADER, required = false) String idempotencyKey) {
+        var names = userForms.stream().map(UserForm::getName).toList();
+        var users = transactionalUserService.createUsers(names, chunkSize, idempotencyKey);
+        return ResponseEntity.ok(users);
+    }
+
+    // import_idを指定しておくと、実行中の進捗をGET /users/importsで確認できる
+    @PostMapping(value = "/import", consumes = "application/x-ndjson")
+    public ResponseEntity<UserImportResult> importUsersFromNdjson(InputStream body, @RequestParam(name = "import_id", required = false) String importId) throws IOException, SQLException {
+        return ResponseEntity.ok(userImportService.importNdjson(importId == null ? UUID.randomUUID().toString() : importId, body));
+    }
+
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<UserImportResult> importUsersFromCsv(InputStream body, @RequestParam(defaultValue = "false") boolean header,
+                                                               @RequestParam(name = "import_id", required = false) String importId) throws IOException, SQLException {
+        return ResponseEntity.ok(userImportService.importCsv(importId == null ? UUID.randomUUID().toString() : importId, body, header));
+    }
+
+    @GetMapping("/imports")
+    public ResponseEntity<List<UserImportProgress>> getImportProgress() {
+        return ResponseEntity.ok(userImportService.progress());
+    }
 }
@@ -0,0 +1,62 @@
+package org.tky.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.StringJoiner;
+import java.util.zip.GZIPOutputStream;
+
+// JPA(永続化コンテキスト)もJacksonも通さず、COPYの出力をそのままレスポンスに書き出す。
+// ドライバは受け取った行から順に書き出すので、件数に関わらずメモリ使用量は一定。
+@Slf4j
+@Service
+public class UserExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataSource dataSource;
+
+    // 読み取りだけなので、レプリカ(なければreadのプール)から接続する
+    public UserExportService(ReplicaRoutingDataSource replicaDataSource) {
+        this.dataSource = replicaDataSource;
+    }
+
+    public long export(Long fromId, Long toId, boolean gzip, OutputStream out) throws IOException, SQLException {
+        var sql = copySql(fromId, toId);
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            var gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+            // COPYのデータは1行ずつ届くので、まとめてから書き出す
+            var bufferedOut = new BufferedOutputStream(gzipOut != null ? gzipOut : out, BUFFER_SIZE);
+            long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, bufferedOut);
+            bufferedOut.flush();
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
+            log.info("exported {} rows in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+            return rows;
+        }
+    }
+
+    // COPYではバインド変数を使えないので、範囲はlongのまま埋め込む。toIdは含む
+    private static String copySql(Long fromId, Long toId) {
+        if (fromId == null && toId == null) {
+            return "COPY users (id, name) TO STDOUT (FORMAT csv, HEADER)";
+        }
+        var where = new StringJoiner(" and ", " where ", "");
+        if (fromId != null) {
+            where.add("id >= " + fromId);
+        }
+        if (toId != null) {
+            where.add("id <= " + toId);
+        }
+        return "COPY (select id, name from users" + where + ") TO STDOUT (FORMAT csv, HEADER)";
+    }
+}
@@ -0,0 +1,5 @@
+package org.tky.demo;
+
+// 実行中のインポートがCOPYに送った行数
+public record UserImportProgress(String importId, String format, long rows, long elapsedMillis, long rowsPerSecond) {
+}
@@ -0,0 +1,4 @@
+package org.tky.demo;
+
+public record UserImportResult(String importId, long rows, long elapsedMillis) {
+}
@@ -0,0 +1,276 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// JPA(永続化コンテキスト)を通さず、リクエストボディを読みながらそのままCOPYに流し込む。
+// 1つのトランザクションで実行するので、途中で失敗した場合は全件ロールバックされる。
+// 実行中のインポートの進捗(送った行数)はprogress()で取得できる。
+// idは列のデフォルト値に任せると1行毎にnextvalされ、シーケンスがincrement by(V2で50)ずつ進んでしまうので、
+// ShardedIdGeneratorと同じくnextvalの値から始まるincrement by個のIDを各行に振り、COPYにidも渡す。
+@Slf4j
+@Service
+public class UserImportService {
+
+    private static final String COPY_SQL = "COPY users (id, name) FROM STDIN (FORMAT csv)";
+    private static final String COPY_WITH_HEADER_SQL = "COPY users (id, name) FROM STDIN (FORMAT csv, HEADER true)";
+    private static final String INCREMENT_SQL = "select increment_by from pg_sequences where schemaname = current_schema() and sequencename = 'users_id_seq'";
+    private static final String NEXTVAL_SQL = "select nextval('users_id_seq') from generate_series(1, ?)";
+    // 1回の問い合わせで確保するIDのブロック数
+    private static final int BLOCKS_PER_FETCH = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL = 100_000;
+
+    // 1行毎ではなくこの行数毎に、進捗を他のスレッドから見えるようにする
+    private static final int PUBLISH_INTERVAL = 1024;
+
+    private final DataSource dataSource;
+    private final ObjectReader userFormReader;
+    private final Map<String, Progress> running = new ConcurrentHashMap<>();
+
+    public UserImportService(DataSource dataSource, ObjectMapper objectMapper) {
+        this.dataSource = dataSource;
+        this.userFormReader = objectMapper.readerFor(UserForm.class);
+    }
+
+    public UserImportResult importNdjson(String importId, InputStream body) throws IOException, SQLException {
+        return copy(importId, "ndjson", COPY_SQL, (out, ids, progress) -> {
+            var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            try (var forms = userFormReader.<UserForm>readValues(body)) {
+                while (forms.hasNextValue()) {
+                    var name = forms.nextValue().getName();
+                    writer.write(Long.toString(ids.next()));
+                    writer.write(',');
+                    writeCsvValue(writer, name);
+                    writer.write('\n');
+                    progress.row();
+                }
+            }
+            writer.flush();
+        });
+    }
+
+    public UserImportResult importCsv(String importId, InputStream body, boolean header) throws IOException, SQLException {
+        return copy(importId, "csv", header ? COPY_WITH_HEADER_SQL : COPY_SQL, (out, ids, progress) -> {
+            var writer = new CsvRecordWriter(out, ids, header);
+            var buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                progress.rows(writer.write(buffer, read));
+            }
+        });
+    }
+
+    public List<UserImportProgress> progress() {
+        return running.values().stream().map(Progress::snapshot).toList();
+    }
+
+    private UserImportResult copy(String importId, String format, String sql, CopyBody copyBody) throws IOException, SQLException {
+        var progress = new Progress(importId, format, System.nanoTime());
+        if (running.putIfAbsent(importId, progress) != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "import " + importId + " is already running");
+        }
+        // COPYの途中の接続では問い合わせができないので、IDはもう1つの接続で確保する
+        try (Connection connection = dataSource.getConnection();
+             var ids = new IdBlocks(dataSource.getConnection())) {
+            connection.setAutoCommit(false);
+            var out = new PGCopyOutputStream(connection.unwrap(PGConnection.class), sql, BUFFER_SIZE);
+            try {
+                copyBody.write(out, ids, progress);
+                // 行数はCOPYが実際に取り込んだ行数を返す(送りながら数えた行数は進捗の目安)
+                long rows = out.endCopy();
+                connection.commit();
+                long elapsedMillis = progress.elapsedMillis();
+                log.info("import {} committed: {} rows in {} ms", importId, rows, elapsedMillis);
+                return new UserImportResult(importId, rows, elapsedMillis);
+            } catch (IOException | SQLException | RuntimeException e) {
+                if (out.isActive()) {
+                    out.cancelCopy();
+                }
+                connection.rollback();
+                log.error("import {} rolled back after {} rows", importId, progress.rows, e);
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            running.remove(importId);
+        }
+    }
+
+    private static void writeCsvValue(BufferedWriter writer, String value) throws IOException {
+        // 空のままにするとNULLとして扱われ、NOT NULL制約違反でインポート全体がロールバックされる
+        if (value == null) {
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    @FunctionalInterface
+    private interface CopyBody {
+        void write(PGCopyOutputStream out, IdSource ids, Progress progress) throws IOException, SQLException;
+    }
+
+    @FunctionalInterface
+    interface IdSource {
+        long next() throws SQLException;
+    }
+
+    // nextvalの値vからv + increment by - 1までを1つのブロックとして順に払い出す(ShardedIdGeneratorと同じpooled-lo)。
+    // シーケンスはトランザクションに関係なく進むので、自動commitの接続で確保する。ロールバックされた分のIDは欠番になる
+    private static final class IdBlocks implements IdSource, AutoCloseable {
+        private final Connection connection;
+        private final long increment;
+        private final long[] blocks = new long[BLOCKS_PER_FETCH];
+        private int nextBlock = BLOCKS_PER_FETCH;
+        private long next;
+        private long limit;
+
+        IdBlocks(Connection connection) throws SQLException {
+            this.connection = connection;
+            try (var statement = connection.prepareStatement(INCREMENT_SQL);
+                 var resultSet = statement.executeQuery()) {
+                resultSet.next();
+                this.increment = resultSet.getLong(1);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public long next() throws SQLException {
+            if (next == limit) {
+                if (nextBlock == blocks.length) {
+                    fetch();
+                }
+                next = blocks[nextBlock++];
+                limit = next + increment;
+            }
+            return next++;
+        }
+
+        private void fetch() throws SQLException {
+            try (var statement = connection.prepareStatement(NEXTVAL_SQL)) {
+                statement.setInt(1, blocks.length);
+                try (var resultSet = statement.executeQuery()) {
+                    for (int i = 0; i < blocks.length; i++) {
+                        resultSet.next();
+                        blocks[i] = resultSet.getLong(1);
+                    }
+                }
+            }
+            nextBlock = 0;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    private static final class Progress {
+        private final String importId;
+        private final String format;
+        private final long start;
+        private long rows;
+        private volatile long publishedRows;
+
+        private Progress(String importId, String format, long start) {
+            this.importId = importId;
+            this.format = format;
+            this.start = start;
+        }
+
+        void row() {
+            rows(1);
+        }
+
+        void rows(long count) {
+            long before = rows;
+            rows += count;
+            if (before / PUBLISH_INTERVAL != rows / PUBLISH_INTERVAL) {
+                publishedRows = rows;
+            }
+            if (before / PROGRESS_INTERVAL != rows / PROGRESS_INTERVAL) {
+                log.info("import {} progress: {} rows ({} rows/s)", importId, rows, rowsPerSecond(rows));
+            }
+        }
+
+        long elapsedMillis() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+
+        long rowsPerSecond(long rows) {
+            return rows * 1000 / Math.max(1, elapsedMillis());
+        }
+
+        UserImportProgress snapshot() {
+            long rows = publishedRows;
+            return new UserImportProgress(importId, format, rows, elapsedMillis(), rowsPerSecond(rows));
+        }
+    }
+
+    // CSVの各レコードの先頭にidの列を足してCOPYに送り、足したレコード数を返す。
+    // クォートされたフィールド内の改行はレコードの区切りとせず、HEADER trueの場合は最初のレコード(ヘッダ)はそのまま送る。
+    // ""(エスケープされた")はクォートの開始と終了が続いたものとして扱えば、クォート内かどうかの判定は変わらない
+    static final class CsvRecordWriter {
+        private final OutputStream out;
+        private final IdSource ids;
+        private boolean inQuotes;
+        private boolean inHeader;
+        private boolean recordStart = true;
+
+        CsvRecordWriter(OutputStream out, IdSource ids, boolean header) {
+            this.out = out;
+            this.ids = ids;
+            this.inHeader = header;
+        }
+
+        long write(byte[] buffer, int length) throws IOException, SQLException {
+            long records = 0;
+            int from = 0;
+            for (int i = 0; i < length; i++) {
+                if (recordStart) {
+                    recordStart = false;
+                    if (!inHeader) {
+                        out.write(buffer, from, i - from);
+                        from = i;
+                        out.write((ids.next() + ",").getBytes(StandardCharsets.US_ASCII));
+                        records++;
+                    }
+                }
+                byte b = buffer[i];
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    recordStart = true;
+                    inHeader = false;
+                }
+            }
+            out.write(buffer, from, length - from);
+            return records;
+        }
+    }
+}
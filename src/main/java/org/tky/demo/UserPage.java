@@ -0,0 +1,6 @@
+package org.tky.demo;
+
+import java.util.List;
+
+public record UserPage(List<User> users, Long nextCursor) {
+}
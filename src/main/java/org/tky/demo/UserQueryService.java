@@ -0,0 +1,85 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+@Slf4j
+@Service
+public class UserQueryService {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int FLUSH_INTERVAL = 1000;
+
+    private final UserRepository userRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+
+    public UserQueryService(UserRepository userRepository, EntityManager entityManager, ObjectMapper objectMapper) {
+        this.userRepository = userRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+    }
+
+    public UserPage findUsers(long cursor, int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_PAGE_SIZE + ": " + size);
+        }
+        var users = userRepository.findByIdGreaterThanOrderByIdAsc(cursor, Limit.of(size));
+        var nextCursor = users.size() < size ? null : users.get(users.size() - 1).getId();
+        return new UserPage(users, nextCursor);
+    }
+
+    public UserSearchPage searchUsers(String query, UserSearchMode mode, int page, int size) {
+        if (query.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "query must not be blank");
+        }
+        if (page < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "page must not be negative: " + page);
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_PAGE_SIZE + ": " + size);
+        }
+        var pageable = PageRequest.of(page, size);
+        var users = switch (mode) {
+            case PREFIX -> userRepository.searchByNamePrefix(escapeLike(query) + "%", pageable);
+            case FUZZY -> userRepository.searchByNameSimilarity(query, pageable);
+        };
+        return new UserSearchPage(users.getContent(), page, users.hasNext());
+    }
+
+    // PostgreSQLのlikeのデフォルトのエスケープ文字はバックスラッシュ
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // 1件ずつJSONに書き出してはdetachするので、テーブルの件数に関わらずヒープ使用量は一定
+    @Transactional(readOnly = true)
+    public long writeUsers(long cursor, OutputStream out) throws IOException {
+        long count = 0;
+        try (var users = userRepository.streamByIdGreaterThan(cursor);
+             var generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (var iterator = users.iterator(); iterator.hasNext(); ) {
+                var user = iterator.next();
+                generator.writeObject(user);
+                entityManager.detach(user);
+                if (++count % FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            }
+            generator.writeEndArray();
+        }
+        log.info("streamed {} users", count);
+        return count;
+    }
+}
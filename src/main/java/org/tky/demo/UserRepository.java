@@ -1,6 +1,47 @@
 package org.tky.demo;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepository extends JpaRepository<User, Long> {
+
+    // V3__users_name_search_indexes.sqlのインデックスが使われる形で書いているので、変更する場合は実行計画を確認すること
+    String SEARCH_BY_NAME_PREFIX = "select * from users where name collate \"C\" like :pattern order by name collate \"C\", id";
+    String SEARCH_BY_NAME_SIMILARITY = "select * from users where name % :query order by similarity(name, :query) desc, id";
+
+    @Override
+    @Cacheable(cacheNames = UserCache.NAME, unless = "#result == null")
+    Optional<User> findById(Long id);
+
+    List<User> findByIdGreaterThanOrderByIdAsc(long cursor, Limit limit);
+
+    @Modifying
+    @Query("update User u set u.name = :name where u.id = :id")
+    int updateName(@Param("id") long id, @Param("name") String name);
+
+    // PostgreSQLのドライバはトランザクション内でfetch sizeが指定された場合のみカーソルで少しずつ読む
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select u from User u where u.id > :cursor order by u.id")
+    Stream<User> streamByIdGreaterThan(@Param("cursor") long cursor);
+
+    // patternはlikeのワイルドカードをエスケープした前方一致のパターン
+    @Query(value = SEARCH_BY_NAME_PREFIX, nativeQuery = true)
+    Slice<User> searchByNamePrefix(@Param("pattern") String pattern, Pageable pageable);
+
+    // 類似度がpg_trgm.similarity_threshold(デフォルト0.3)以上のものを類似度の高い順に返す
+    @Query(value = SEARCH_BY_NAME_SIMILARITY, nativeQuery = true)
+    Slice<User> searchByNameSimilarity(@Param("query") String query, Pageable pageable);
 }
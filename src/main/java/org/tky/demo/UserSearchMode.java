@@ -0,0 +1,22 @@
+package org.tky.demo;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+public enum UserSearchMode {
+    PREFIX,
+    FUZZY;
+
+    // リクエストパラメータのmode(大文字小文字は区別しない)。知らない値は400にする
+    static UserSearchMode of(String mode) {
+        try {
+            return valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "unknown mode: " + mode + ", expected one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT), e);
+        }
+    }
+}
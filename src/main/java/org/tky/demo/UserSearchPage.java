@@ -0,0 +1,6 @@
+package org.tky.demo;
+
+import java.util.List;
+
+public record UserSearchPage(List<User> users, int page, boolean hasNext) {
+}
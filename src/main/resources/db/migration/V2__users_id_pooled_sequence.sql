@@ -0,0 +1,2 @@
+-- Hibernateのpooled optimizerはallocationSize単位でIDを払い出すので、シーケンスも同じ幅で進める
+alter sequence users_id_seq increment by 50;
@@ -0,0 +1,9 @@
+-- create index concurrentlyはトランザクション内で実行できないので、このマイグレーションはトランザクションの外で実行される(spring.flyway.mixed=true)。
+-- 構築中もusersへの書き込みを止めない。途中で失敗するとINVALIDなインデックスが残るので、dropしてからやり直す
+create extension if not exists pg_trgm;
+
+-- 前方一致検索用。collation "C"のbtreeなら like 'abc%' を範囲検索にでき、name順のページングもソートなしで返せる
+create index concurrently if not exists users_name_prefix_idx on users (name collate "C", id);
+
+-- 類似度検索(name % 'abc')用
+create index concurrently if not exists users_name_trgm_idx on users using gin (name gin_trgm_ops);
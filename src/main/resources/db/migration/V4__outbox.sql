@@ -0,0 +1,22 @@
+create table outbox (
+    id bigserial primary key,
+    aggregate_type varchar(64) not null,
+    aggregate_id bigint not null,
+    event_type varchar(64) not null,
+    payload jsonb not null,
+    created_at timestamptz not null default clock_timestamp()
+);
+
+-- JPAのsave、COPYによるインポート、R2DBCのどこからinsertしても、同じトランザクションでイベントが書かれるようにtriggerで書く。
+-- 文単位のtriggerなので、バッチinsertやCOPYでも1文につき1回のinsertで済む
+create function users_outbox() returns trigger language plpgsql as $$
+begin
+    insert into outbox (aggregate_type, aggregate_id, event_type, payload)
+    select 'user', id, 'user_created', jsonb_build_object('id', id, 'name', name) from inserted order by id;
+    return null;
+end;
+$$;
+
+create trigger users_outbox after insert on users
+    referencing new table as inserted
+    for each statement execute function users_outbox();
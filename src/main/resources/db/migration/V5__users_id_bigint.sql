@@ -0,0 +1,4 @@
+-- shard番号をIDの上位ビットに入れるので、serial(int4)では足りない。
+-- テーブルを書き換えるので、大きなテーブルではメンテナンス時間中に適用すること
+alter table users alter column id type bigint;
+alter sequence users_id_seq as bigint;
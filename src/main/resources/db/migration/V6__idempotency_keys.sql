@@ -0,0 +1,13 @@
+-- Idempotency-Keyヘッダ毎に、最初のリクエストの内容のハッシュと2xxのレスポンスを保存する。
+-- 行はリクエストの処理と同じトランザクションでinsertするので、処理がrollbackされればキーも残らない
+create table idempotency_keys (
+    idempotency_key varchar(255) primary key,
+    request_hash bytea not null,
+    status int,
+    content_type varchar(255),
+    body bytea,
+    created_at timestamptz not null default clock_timestamp()
+);
+
+-- 期限切れのキーを古いものからバッチで削除するため
+create index idempotency_keys_created_at_idx on idempotency_keys (created_at);
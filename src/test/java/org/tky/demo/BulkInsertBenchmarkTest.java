@@ -0,0 +1,54 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("benchmark")
+@SpringBootTest
+class BulkInsertBenchmarkTest {
+
+	private static final int ROWS = 10_000;
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Test
+	void bulkInsertIsFasterThanOneSavePerUser() {
+		// JIT・コネクションプールのウォームアップ
+		names("warmup", 2_000).forEach(transactionalUserService::createUser);
+		transactionalUserService.createUsers(names("warmup", 2_000));
+
+		var singleNames = names("single", ROWS);
+		long start = System.nanoTime();
+		singleNames.forEach(transactionalUserService::createUser);
+		double single = rowsPerSecond(ROWS, System.nanoTime() - start);
+		System.out.printf("one save per user : %,10.0f rows/s%n", single);
+
+		for (int chunkSize : new int[]{100, 1_000, 5_000}) {
+			var bulkNames = names("bulk" + chunkSize, ROWS);
+			start = System.nanoTime();
+			var users = transactionalUserService.createUsers(bulkNames, chunkSize);
+			double bulk = rowsPerSecond(ROWS, System.nanoTime() - start);
+			System.out.printf("bulk chunk %5d   : %,10.0f rows/s (x%.1f)%n", chunkSize, bulk, bulk / single);
+
+			assertThat(users).hasSize(ROWS);
+			assertThat(bulk).isGreaterThan(single);
+		}
+	}
+
+	private static List<String> names(String prefix, int count) {
+		return IntStream.range(0, count).mapToObj(i -> prefix + "_" + i).toList();
+	}
+
+	private static double rowsPerSecond(int rows, long elapsedNanos) {
+		return rows * 1_000_000_000.0 / elapsedNanos;
+	}
+
+}
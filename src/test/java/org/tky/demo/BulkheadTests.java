@@ -0,0 +1,144 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 書き込み用(primary)のプールの接続を全て保持して枯渇させた状態で、読み取りと書き込みのリクエストを送る
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.hikari.maximum-pool-size=2",
+		"spring.datasource.hikari.connection-timeout=250",
+		"demo.bulkhead.limits.[/users/on_transactional_service]=1"})
+class BulkheadTests {
+
+	private static final long WRITE_POOL_TIMEOUT_MILLIS = 250;
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private HikariDataSource primaryDataSource;
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Autowired
+	private UserCache userCache;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final List<Connection> heldConnections = new ArrayList<>();
+
+	@AfterEach
+	void releaseWritePool() throws SQLException {
+		for (var connection : heldConnections) {
+			connection.close();
+		}
+		heldConnections.clear();
+	}
+
+	@Test
+	void readsKeepTheirLatencyWhileWritePoolIsSaturated() throws SQLException {
+		var user = transactionalUserService.createUser(UUID.randomUUID().toString());
+		saturateWritePool();
+
+		var write = restTemplate.postForEntity("/users/on_transactional_service", Map.of("name", "bulkhead"), String.class);
+		assertThat(write.getStatusCode().is5xxServerError()).isTrue();
+
+		var latencies = new long[100];
+		for (int i = 0; i < latencies.length; i++) {
+			// キャッシュに当たるとDBに接続しないので、毎回読み取り用のプールから接続させる
+			userCache.evict(user.getId());
+			long start = System.nanoTime();
+			var read = restTemplate.getForEntity("/users/" + user.getId(), User.class);
+			latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertThat(read.getStatusCode()).isEqualTo(HttpStatus.OK);
+		}
+		Arrays.sort(latencies);
+		assertThat(latencies[98]).isLessThan(WRITE_POOL_TIMEOUT_MILLIS);
+	}
+
+	@Test
+	void fullBulkheadRejectsWithoutQueueing() throws Exception {
+		saturateWritePool();
+		// 1つめのリクエストはプールの空きを待つ間、on_transactional_serviceの唯一の許可を保持し続ける
+		var first = CompletableFuture.supplyAsync(() -> restTemplate.postForEntity("/users/on_transactional_service", Map.of("name", "bulkhead"), String.class));
+		awaitInFlight("POST /users/on_transactional_service");
+
+		long start = System.nanoTime();
+		var second = restTemplate.postForEntity("/users/on_transactional_service", Map.of("name", "bulkhead"), String.class);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertThat(second.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		assertThat(elapsedMillis).isLessThan(WRITE_POOL_TIMEOUT_MILLIS);
+		assertThat(first.get().getStatusCode().is5xxServerError()).isTrue();
+	}
+
+	@Test
+	void fullBulkheadRejectsAKeyedRequestBeforeTakingAWriteConnection() throws Exception {
+		saturateWritePool();
+		var first = CompletableFuture.supplyAsync(() -> restTemplate.postForEntity("/users/on_transactional_service", Map.of("name", "bulkhead"), String.class));
+		awaitInFlight("POST /users/on_transactional_service");
+		double timeoutsBefore = connectionTimeouts();
+
+		// Idempotency-Keyがあると、BulkheadFilterより後ろのIdempotencyKeyFilterがキーのinsertのために接続を取得する
+		var key = UUID.randomUUID().toString();
+		var headers = new HttpHeaders();
+		headers.set(IdempotencyKeyFilter.HEADER, key);
+		var second = restTemplate.postForEntity("/users/on_transactional_service", new HttpEntity<>(Map.of("name", "bulkhead"), headers), String.class);
+
+		assertThat(second.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		assertThat(first.get().getStatusCode().is5xxServerError()).isTrue();
+		// プールの空きを待ってタイムアウトしたのは、許可を持っていた1つめのリクエストだけ
+		assertThat(connectionTimeouts() - timeoutsBefore).isEqualTo(1);
+		releaseWritePool();
+		assertThat(jdbcTemplate.queryForObject("select count(*) from idempotency_keys where idempotency_key = ?", Integer.class, key)).isZero();
+	}
+
+	private double connectionTimeouts() {
+		return meterRegistry.get("hikaricp.connections.timeout").tag("pool", "primary").counter().count();
+	}
+
+	private void saturateWritePool() throws SQLException {
+		for (int i = 0; i < primaryDataSource.getMaximumPoolSize(); i++) {
+			heldConnections.add(primaryDataSource.getConnection());
+		}
+	}
+
+	private void awaitInFlight(String endpoint) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (System.nanoTime() < deadline) {
+			var gauge = meterRegistry.find("demo.bulkhead.in.flight").tag("endpoint", endpoint).gauge();
+			if (gauge != null && gauge.value() == 1) {
+				return;
+			}
+			Thread.sleep(1);
+		}
+		throw new AssertionError("no request in flight on " + endpoint);
+	}
+
+}
@@ -0,0 +1,44 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("benchmark")
+class GroupCommitBenchmarkTest {
+
+	private static final int CONCURRENCY = 500;
+	private static final Duration WARMUP = Duration.ofSeconds(10);
+	private static final Duration DURATION = Duration.ofSeconds(30);
+
+	@Test
+	void groupCommitRaisesSignupThroughput() throws Exception {
+		var perRequest = run(false);
+		var groupCommit = run(true);
+
+		System.out.printf("transaction per request : %s%n", perRequest);
+		System.out.printf("group commit            : %s%n", groupCommit);
+		assertThat(groupCommit.throughput()).isGreaterThan(perRequest.throughput());
+	}
+
+	private LoadDriver.Result run(boolean groupCommit) throws Exception {
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties("server.port=0",
+						"demo.bulkhead.enabled=false",
+						"demo.group-commit.enabled=" + groupCommit,
+						"logging.level.org.tky.demo=WARN")
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var targets = List.of(LoadDriver.Target.post("/users/on_transactional_service", "{\"name\":\"benchmark\"}"));
+			LoadDriver.run(baseUri, targets, CONCURRENCY, WARMUP);
+			return LoadDriver.run(baseUri, targets, CONCURRENCY, DURATION);
+		}
+	}
+
+}
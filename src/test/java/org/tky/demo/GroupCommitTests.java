@@ -0,0 +1,50 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// 1つのflusherが長めに待ってまとめるので、同時に呼び出したものは同じバッチになる
+@SpringBootTest(properties = {
+		"demo.group-commit.enabled=true",
+		"demo.group-commit.flushers=1",
+		"demo.group-commit.max-wait-micros=200000"})
+class GroupCommitTests {
+
+	@Autowired
+	private GroupCommitUserService groupCommitUserService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void failedBatchFallsBackToOneTransactionPerRequest() {
+		var name = UUID.randomUUID().toString();
+		var names = List.of(name + "_1", name + "_2", "x".repeat(256), name + "_3");
+
+		var futures = names.stream()
+				.map(n -> CompletableFuture.supplyAsync(() -> groupCommitUserService.createUser(n)))
+				.toList();
+
+		// nameの長さの制約違反でバッチ全体が失敗するが、1件ずつやり直すので失敗するのは違反した行だけ
+		assertThatThrownBy(futures.get(2)::join)
+				.isInstanceOf(CompletionException.class)
+				.hasCauseInstanceOf(DataIntegrityViolationException.class);
+		for (int i : new int[]{0, 1, 3}) {
+			var user = futures.get(i).join();
+			assertThat(user.getName()).isEqualTo(names.get(i));
+			assertThat(jdbcTemplate.queryForObject("select count(*) from users where id = ?", Integer.class, user.getId())).isEqualTo(1);
+		}
+	}
+
+}
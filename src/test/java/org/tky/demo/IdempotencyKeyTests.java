@@ -0,0 +1,119 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "demo.bulkhead.enabled=false")
+class IdempotencyKeyTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void retriedRequestReturnsTheFirstResponseWithoutCreatingUsersAgain() {
+		var key = UUID.randomUUID().toString();
+		var name = UUID.randomUUID().toString();
+
+		var first = post("/users/create_couple_of_users", key, name);
+		var retry = post("/users/create_couple_of_users", key, name);
+
+		assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(retry.getBody()).isEqualTo(first.getBody());
+		assertThat(retry.getHeaders().getFirst(IdempotencyKeyFilter.REPLAYED_HEADER)).isEqualTo("true");
+		assertThat(countUsers(name)).isEqualTo(2);
+	}
+
+	@Test
+	void concurrentDuplicatesWaitForTheFirstRequest() {
+		var key = UUID.randomUUID().toString();
+		var name = UUID.randomUUID().toString();
+
+		var responses = IntStream.range(0, 8)
+				.mapToObj(i -> CompletableFuture.supplyAsync(() -> post("/users/create_couple_of_users", key, name)))
+				.toList().stream()
+				.map(CompletableFuture::join)
+				.toList();
+
+		assertThat(responses).allSatisfy(response -> assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK));
+		assertThat(responses).extracting(ResponseEntity::getBody).containsOnly(responses.get(0).getBody());
+		assertThat(countUsers(name)).isEqualTo(2);
+	}
+
+	@Test
+	void keyReusedForDifferentRequestIsRejected() {
+		var key = UUID.randomUUID().toString();
+		post("/users/on_transactional_service", key, UUID.randomUUID().toString());
+
+		var other = post("/users/on_transactional_service", key, UUID.randomUUID().toString());
+
+		assertThat(other.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+	}
+
+	@Test
+	void failedRequestRollsBackTheUserAndTheKey() {
+		var key = UUID.randomUUID().toString();
+		var name = UUID.randomUUID().toString();
+
+		// キーがなければsaveの後にcommitされ、例外を投げてもユーザーは残るエンドポイント
+		var response = post("/users/on_controller_rollback1", key, name);
+
+		assertThat(response.getStatusCode().is5xxServerError()).isTrue();
+		assertThat(countUsers(name)).isZero();
+		assertThat(jdbcTemplate.queryForObject("select count(*) from idempotency_keys where idempotency_key = ?", Integer.class, key)).isZero();
+	}
+
+	@Test
+	void bulkRetryAfterAFailedChunkDoesNotRecreateCommittedChunks() {
+		var key = UUID.randomUUID().toString();
+		var name = UUID.randomUUID().toString();
+		var tooLong = "x".repeat(256);
+
+		// chunk_size=2なので、最初のchunkはcommitされ、2つめのchunkでnameの長さの制約違反になる
+		var failed = postBulk(key, List.of(name + "_1", name + "_2", name + "_3", tooLong), String.class);
+		assertThat(failed.getStatusCode().is5xxServerError()).isTrue();
+		assertThat(countUsers(name)).isEqualTo(2);
+
+		var retried = postBulk(key, List.of(name + "_1", name + "_2", name + "_3", name + "_4"), User[].class);
+
+		assertThat(retried.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(retried.getBody()).extracting(User::getName).containsExactly(name + "_1", name + "_2", name + "_3", name + "_4");
+		assertThat(countUsers(name)).isEqualTo(4);
+	}
+
+	private <T> ResponseEntity<T> postBulk(String key, List<String> names, Class<T> responseType) {
+		var headers = new HttpHeaders();
+		headers.set(IdempotencyKeyFilter.HEADER, key);
+		var body = names.stream().map(n -> Map.of("name", n)).toList();
+		return restTemplate.postForEntity("/users/bulk?chunk_size=2", new HttpEntity<>(body, headers), responseType);
+	}
+
+	private ResponseEntity<String> post(String path, String key, String name) {
+		var headers = new HttpHeaders();
+		headers.set(IdempotencyKeyFilter.HEADER, key);
+		return restTemplate.postForEntity(path, new HttpEntity<>(Map.of("name", name), headers), String.class);
+	}
+
+	private int countUsers(String name) {
+		return jdbcTemplate.queryForObject("select count(*) from users where name like ?", Integer.class, name + "%");
+	}
+
+}
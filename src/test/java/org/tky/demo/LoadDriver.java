@@ -0,0 +1,151 @@
+package org.tky.demo;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class LoadDriver {
+
+	private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	record Target(String method, String path, String body, int weight) {
+
+		static Target get(String path) {
+			return new Target("GET", path, null, 1);
+		}
+
+		static Target post(String path, String body) {
+			return new Target("POST", path, body, 1);
+		}
+
+		Target withWeight(int weight) {
+			return new Target(method, path, body, weight);
+		}
+
+		String name() {
+			return method + " " + path;
+		}
+	}
+
+	record TargetResult(Histogram latency, long errors) {
+
+		double errorRate() {
+			return latency.getTotalCount() == 0 ? 0 : (double) errors / latency.getTotalCount();
+		}
+	}
+
+	record Result(double throughput, Histogram latency, long errors, Map<String, TargetResult> targets) {
+
+		long requests() {
+			return latency.getTotalCount();
+		}
+
+		long p50Micros() {
+			return latency.getValueAtPercentile(50) / 1_000;
+		}
+
+		long p99Micros() {
+			return latency.getValueAtPercentile(99) / 1_000;
+		}
+
+		void print(PrintStream out) {
+			out.printf("%-55s %9s %7s %9s %9s %9s %9s %9s%n", "target", "requests", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+			targets.forEach((name, target) -> printRow(out, name, target.latency(), target.errorRate()));
+			printRow(out, "total", latency, requests() == 0 ? 0 : (double) errors / requests());
+			out.printf("throughput: %,.0f req/s%n", throughput);
+		}
+
+		private static void printRow(PrintStream out, String name, Histogram histogram, double errorRate) {
+			out.printf("%-55s %,9d %6.1f%% %,9d %,9d %,9d %,9d %,9d%n", name, histogram.getTotalCount(), errorRate * 100,
+					histogram.getValueAtPercentile(50) / 1_000, histogram.getValueAtPercentile(90) / 1_000,
+					histogram.getValueAtPercentile(99) / 1_000, histogram.getValueAtPercentile(99.9) / 1_000,
+					histogram.getMaxValue() / 1_000);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%,8d req  %,9.0f req/s  p50 %,7d us  p99 %,8d us  errors %d",
+					requests(), throughput, p50Micros(), p99Micros(), errors);
+		}
+	}
+
+	private LoadDriver() {
+	}
+
+	// concurrency本の仮想スレッドが、weightの比率でtargetsを送り続ける
+	static Result run(URI baseUri, List<Target> targets, int concurrency, Duration duration) throws Exception {
+		var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+		var schedule = new ArrayList<Target>();
+		targets.forEach(target -> {
+			for (int i = 0; i < target.weight(); i++) {
+				schedule.add(target);
+			}
+		});
+		var recorders = new LinkedHashMap<Target, Recorder>();
+		var errors = new LinkedHashMap<Target, AtomicLong>();
+		targets.forEach(target -> {
+			recorders.put(target, new Recorder(MAX_LATENCY_NANOS, 3));
+			errors.put(target, new AtomicLong());
+		});
+
+		long start = System.nanoTime();
+		long deadline = start + duration.toNanos();
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int worker = 0; worker < concurrency; worker++) {
+				int offset = worker;
+				executor.submit(() -> {
+					for (long count = offset; System.nanoTime() < deadline; count++) {
+						var target = schedule.get((int) (count % schedule.size()));
+						long sent = System.nanoTime();
+						try {
+							var response = client.send(request(baseUri, target), HttpResponse.BodyHandlers.discarding());
+							if (response.statusCode() >= 400) {
+								errors.get(target).incrementAndGet();
+							}
+						} catch (Exception e) {
+							errors.get(target).incrementAndGet();
+						}
+						recorders.get(target).recordValue(Math.min(System.nanoTime() - sent, MAX_LATENCY_NANOS));
+					}
+				});
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		var total = new Histogram(MAX_LATENCY_NANOS, 3);
+		var results = new LinkedHashMap<String, TargetResult>();
+		long totalErrors = 0;
+		for (var target : targets) {
+			var histogram = recorders.get(target).getIntervalHistogram();
+			total.add(histogram);
+			long targetErrors = errors.get(target).get();
+			totalErrors += targetErrors;
+			results.put(target.name(), new TargetResult(histogram, targetErrors));
+		}
+		return new Result(total.getTotalCount() * 1_000_000_000.0 / elapsed, total, totalErrors, results);
+	}
+
+	private static HttpRequest request(URI baseUri, Target target) {
+		var builder = HttpRequest.newBuilder(baseUri.resolve(target.path())).timeout(Duration.ofSeconds(30));
+		if (target.body() == null) {
+			return builder.method(target.method(), HttpRequest.BodyPublishers.noBody()).build();
+		}
+		return builder.header("Content-Type", "application/json")
+				.method(target.method(), HttpRequest.BodyPublishers.ofString(target.body()))
+				.build();
+	}
+
+}
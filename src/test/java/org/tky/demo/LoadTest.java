@@ -0,0 +1,93 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// ./gradlew loadTest -Ploadtest.scenario=mixed-rollback -Ploadtest.concurrency=200 -Ploadtest.duration=60
+// アプリケーションを起動して負荷をかけ、エンドポイント毎のレイテンシ分布・エラー率と、コネクションプールの使用状況をレポートに出力する。
+public class LoadTest {
+
+	private static final String BODY = "{\"name\":\"loadtest\"}";
+
+	public static void main(String[] args) throws Exception {
+		var scenario = System.getProperty("loadtest.scenario", "mixed-rollback");
+		int concurrency = Integer.getInteger("loadtest.concurrency", 100);
+		var duration = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 60));
+		var warmup = Duration.ofSeconds(Integer.getInteger("loadtest.warmup", 10));
+		var reportDir = Path.of(System.getProperty("loadtest.reportDir", "build/reports/loadtest"));
+
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties("server.port=0", "logging.level.org.tky.demo=WARN")
+				.run(args)) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var seeded = context.getBean(TransactionalUserService.class).createUser("loadtest");
+			var targets = scenarios(seeded.getId()).get(scenario);
+			if (targets == null) {
+				throw new IllegalArgumentException("unknown scenario: " + scenario + ", expected one of " + scenarios(0).keySet());
+			}
+			var pool = context.getBean("primaryDataSource", HikariDataSource.class).getHikariPoolMXBean();
+
+			LoadDriver.run(baseUri, targets, concurrency, warmup);
+
+			var activeConnections = new Histogram(3);
+			var pendingThreads = new Histogram(3);
+			LoadDriver.Result result;
+			try (var sampler = Executors.newSingleThreadScheduledExecutor()) {
+				sampler.scheduleAtFixedRate(() -> {
+					activeConnections.recordValue(pool.getActiveConnections());
+					pendingThreads.recordValue(pool.getThreadsAwaitingConnection());
+				}, 0, 100, TimeUnit.MILLISECONDS);
+				result = LoadDriver.run(baseUri, targets, concurrency, duration);
+			}
+
+			var report = new ByteArrayOutputStream();
+			try (var out = new PrintStream(report, true, StandardCharsets.UTF_8)) {
+				out.printf("scenario: %s, concurrency: %d, duration: %ds, pool size: %d%n%n", scenario, concurrency, duration.toSeconds(), pool.getTotalConnections());
+				result.print(out);
+				out.printf("%npool active connections: p50 %d, p99 %d, max %d%n", activeConnections.getValueAtPercentile(50),
+						activeConnections.getValueAtPercentile(99), activeConnections.getMaxValue());
+				out.printf("threads awaiting connection: p50 %d, p99 %d, max %d%n", pendingThreads.getValueAtPercentile(50),
+						pendingThreads.getValueAtPercentile(99), pendingThreads.getMaxValue());
+				out.printf("%nlatency distribution (us):%n");
+				result.latency().outputPercentileDistribution(out, 1_000.0);
+			}
+			Files.createDirectories(reportDir);
+			var file = reportDir.resolve(scenario + "-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".txt");
+			Files.write(file, report.toByteArray());
+			System.out.print(report.toString(StandardCharsets.UTF_8));
+			System.out.println("report: " + file.toAbsolutePath());
+		}
+	}
+
+	private static Map<String, List<LoadDriver.Target>> scenarios(long userId) {
+		return Map.of(
+				"reads", List.of(
+						LoadDriver.Target.get("/users/" + userId),
+						LoadDriver.Target.get("/users?size=20")),
+				"writes", List.of(
+						LoadDriver.Target.post("/users/on_transactional_service", BODY),
+						LoadDriver.Target.post("/users/create_couple_of_users", BODY)),
+				"mixed-rollback", List.of(
+						LoadDriver.Target.get("/users/" + userId).withWeight(4),
+						LoadDriver.Target.post("/users/on_transactional_service", BODY).withWeight(4),
+						LoadDriver.Target.post("/users/create_couple_of_users", BODY).withWeight(2),
+						LoadDriver.Target.post("/users/create_couple_of_users_rollback2", BODY).withWeight(2),
+						LoadDriver.Target.post("/users/create_couple_of_users_rollback3", BODY)));
+	}
+
+}
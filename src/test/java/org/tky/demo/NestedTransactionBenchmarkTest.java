@@ -0,0 +1,58 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// rollback3ではuser2の失敗で外側のトランザクションごとrollbackされるので、クライアントはuser1の保存をやり直す必要がある。
+// nested_rollback3ではuser1がそのままcommitされるので、やり直しは不要。
+// やり直しを含めた1単位あたりのリクエスト数とスループットを比較する。
+@Tag("benchmark")
+class NestedTransactionBenchmarkTest {
+
+	private static final int CONCURRENCY = 100;
+	private static final Duration WARMUP = Duration.ofSeconds(10);
+	private static final Duration DURATION = Duration.ofSeconds(30);
+
+	@Test
+	void savepointsSaveRetriesAndRaiseThroughput() throws Exception {
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties("server.port=0", "demo.bulkhead.enabled=false", "logging.level.org.tky.demo=WARN")
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var body = "{\"name\":\"benchmark\"}";
+
+			// 全体rollback後のやり直しは、失敗しない方のuser1だけを保存するリクエストとしてモデル化する
+			var allOrNothingTargets = List.of(
+					LoadDriver.Target.post("/users/create_couple_of_users_rollback3", body),
+					LoadDriver.Target.post("/users/on_transactional_service", body));
+			var nestedTargets = List.of(LoadDriver.Target.post("/users/create_couple_of_users_nested_rollback3", body));
+
+			LoadDriver.run(baseUri, allOrNothingTargets, CONCURRENCY, WARMUP);
+			var allOrNothing = LoadDriver.run(baseUri, allOrNothingTargets, CONCURRENCY, DURATION);
+			LoadDriver.run(baseUri, nestedTargets, CONCURRENCY, WARMUP);
+			var nested = LoadDriver.run(baseUri, nestedTargets, CONCURRENCY, DURATION);
+
+			// rollback3は500を返すので、成功した単位数はやり直しリクエストの成功数で数える
+			var allOrNothingUnits = allOrNothing.targets().get(allOrNothingTargets.get(1).name()).latency().getTotalCount()
+					- allOrNothing.targets().get(allOrNothingTargets.get(1).name()).errors();
+			var nestedUnits = nested.requests() - nested.errors();
+			var seconds = (double) DURATION.toSeconds();
+
+			System.out.printf("all-or-nothing + retry : %s%n", allOrNothing);
+			System.out.printf("  units/s %.1f, requests per unit %.2f%n", allOrNothingUnits / seconds, (double) allOrNothing.requests() / allOrNothingUnits);
+			System.out.printf("nested savepoint       : %s%n", nested);
+			System.out.printf("  units/s %.1f, requests per unit %.2f%n", nestedUnits / seconds, (double) nested.requests() / nestedUnits);
+
+			assertThat(nested.errors()).isZero();
+			assertThat(nestedUnits / seconds).isGreaterThan(allOrNothingUnits / seconds);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.UnexpectedRollbackException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class NestedTransactionTests {
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void caughtNestedFailureRollsBackOnlyToSavepoint() {
+		var name = UUID.randomUUID().toString();
+
+		var users = transactionalUserService.createCoupleOfUsersAndErrorNestedServiceAndCatch(name + "_1", name + "_2");
+
+		assertThat(users).hasSize(1);
+		assertThat(count(name + "_1")).isEqualTo(1);
+		assertThat(count(name + "_2")).isZero();
+	}
+
+	@Test
+	void caughtRequiredFailureRollsBackEverything() {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> transactionalUserService.createCoupleOfUsersAndErrorNextServiceAndCatch(name + "_1", name + "_2"))
+				.isInstanceOf(UnexpectedRollbackException.class);
+
+		assertThat(count(name + "_1")).isZero();
+		assertThat(count(name + "_2")).isZero();
+	}
+
+	@Test
+	void userRolledBackToSavepointIsNotVisibleInOuterTransaction() {
+		var name = UUID.randomUUID().toString();
+		var rolledBackId = new AtomicLong();
+
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			userRepository.save(new User(name + "_1"));
+			try {
+				nested().executeWithoutResult(nested -> {
+					rolledBackId.set(userRepository.save(new User(name + "_2")).getId());
+					throw new RuntimeException("rollback test");
+				});
+			} catch (RuntimeException e) {
+				// savepointまでrollbackされる
+			}
+			assertThat(userRepository.findById(rolledBackId.get())).isEmpty();
+		});
+
+		assertThat(count(name + "_1")).isEqualTo(1);
+		assertThat(count(name + "_2")).isZero();
+	}
+
+	@Test
+	void constraintViolationInsideSavepointFailsTheOuterTransactionLoudly() {
+		var name = UUID.randomUUID().toString();
+		var innerFailure = new AtomicReference<RuntimeException>();
+
+		// flushに失敗したセッションは使えないので、外側のcommitも黙って成功させずにrollbackする
+		assertThatThrownBy(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			userRepository.save(new User(name + "_1"));
+			try {
+				nested().executeWithoutResult(nested -> userRepository.save(new User("x".repeat(256))));
+			} catch (RuntimeException e) {
+				innerFailure.set(e);
+			}
+		})).isInstanceOf(UnexpectedRollbackException.class);
+
+		// nameの長さの制約違反はsavepointを抜ける時点(外側のcommitより前)で例外になる
+		assertThat(innerFailure.get()).isNotNull();
+		assertThat(count(name + "_1")).isZero();
+	}
+
+	private TransactionTemplate nested() {
+		var template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		return template;
+	}
+
+	private int count(String name) {
+		return jdbcTemplate.queryForObject("select count(*) from users where name = ?", Integer.class, name);
+	}
+
+}
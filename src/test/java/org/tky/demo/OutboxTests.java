@@ -0,0 +1,55 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+		"demo.outbox.sink=file",
+		"demo.outbox.file.path=build/outbox/outbox-tests.ndjson",
+		"demo.outbox.poll-interval-millis=50"})
+class OutboxTests {
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Value("${demo.outbox.file.path}")
+	private Path path;
+
+	@Test
+	void committedUsersAreRelayedAndRolledBackUsersAreNot() throws Exception {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> transactionalUserService.createCoupleOfUsersAndErrorNextService(name + "_rolled_back_1", name + "_rolled_back_2"))
+				.isInstanceOf(RuntimeException.class);
+		var users = transactionalUserService.createCoupleOfUsers(name + "_1", name + "_2");
+
+		// rollbackしたユーザーはoutboxにも書かれていないので、commitした方のイベントが届いた時点で確認できる
+		awaitEvent(name + "_2");
+		var events = Files.readString(path);
+		users.forEach(user -> assertThat(events).contains("\"aggregateId\":" + user.getId() + ","));
+		assertThat(events).doesNotContain(name + "_rolled_back");
+	}
+
+	private void awaitEvent(String fragment) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (System.nanoTime() < deadline) {
+			if (Files.exists(path) && Files.readString(path).contains(fragment)) {
+				return;
+			}
+			Thread.sleep(50);
+		}
+		throw new AssertionError("event was not relayed: " + fragment);
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+@Tag("benchmark")
+class ReactiveStackBenchmarkTest {
+
+	// リクエストスレッドとDB接続の数に対して、同時接続数を大きくする
+	private static final int THREADS = 50;
+	private static final int POOL_SIZE = 20;
+	private static final int[] CONCURRENCIES = {50, 500, 2_000};
+	private static final Duration WARMUP = Duration.ofSeconds(10);
+	private static final Duration DURATION = Duration.ofSeconds(30);
+
+	@Test
+	void compareBlockingAndReactiveStacks() throws Exception {
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties("server.port=0",
+						"demo.bulkhead.enabled=false",
+						"server.tomcat.threads.max=" + THREADS,
+						"spring.datasource.hikari.maximum-pool-size=" + POOL_SIZE,
+						"spring.r2dbc.pool.max-size=" + POOL_SIZE,
+						"logging.level.org.tky.demo=WARN")
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var blocking = List.of(
+					LoadDriver.Target.post("/users/on_transactional_service", "{\"name\":\"benchmark\"}"),
+					LoadDriver.Target.post("/users/create_couple_of_users", "{\"name\":\"benchmark\"}"));
+			var reactive = List.of(
+					LoadDriver.Target.post("/reactive/users/on_transactional_service", "{\"name\":\"benchmark\"}"),
+					LoadDriver.Target.post("/reactive/users/create_couple_of_users", "{\"name\":\"benchmark\"}"));
+
+			LoadDriver.run(baseUri, blocking, THREADS, WARMUP);
+			LoadDriver.run(baseUri, reactive, THREADS, WARMUP);
+			for (int concurrency : CONCURRENCIES) {
+				System.out.printf("concurrency %5d blocking (JPA)  : %s%n", concurrency, LoadDriver.run(baseUri, blocking, concurrency, DURATION));
+				System.out.printf("concurrency %5d reactive (R2DBC): %s%n", concurrency, LoadDriver.run(baseUri, reactive, concurrency, DURATION));
+			}
+		}
+	}
+
+}
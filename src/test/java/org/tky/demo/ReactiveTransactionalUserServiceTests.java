@@ -0,0 +1,59 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.UnexpectedRollbackException;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class ReactiveTransactionalUserServiceTests {
+
+	@Autowired
+	private ReactiveTransactionalUserService transactionalUserService;
+
+	@Autowired
+	private DatabaseClient databaseClient;
+
+	@Test
+	void createCoupleOfUsersCommitsBoth() {
+		var name = UUID.randomUUID().toString();
+
+		transactionalUserService.createCoupleOfUsers(name + "_1", name + "_2").block();
+
+		assertThat(countUsers(name)).isEqualTo(2);
+	}
+
+	@Test
+	void caughtFailureInJoinedTransactionRollsBackEverything() {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> transactionalUserService.createCoupleOfUsersAndErrorNextServiceAndCatch(name + "_1", name + "_2").block())
+				.isInstanceOf(UnexpectedRollbackException.class);
+
+		assertThat(countUsers(name)).isZero();
+	}
+
+	@Test
+	void caughtFailureFromNonTransactionalServiceCommitsBoth() {
+		var name = UUID.randomUUID().toString();
+
+		transactionalUserService.createCoupleOfUsersAndErrorFromNonTransactionalService(name + "_1", name + "_2").block();
+
+		assertThat(countUsers(name)).isEqualTo(2);
+	}
+
+	private long countUsers(String prefix) {
+		return databaseClient.sql("select count(*) from users where name like :prefix")
+				.bind("prefix", prefix + "%")
+				.map(row -> row.get(0, Long.class))
+				.one()
+				.block();
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// UserControllerと同じく、コントローラでトランザクションの外から呼び出した場合の結果を確認する
+@SpringBootTest
+class ReactiveUserControllerTests {
+
+	@Autowired
+	private ReactiveUserController controller;
+
+	@Autowired
+	private DatabaseClient databaseClient;
+
+	@Test
+	void errorAfterSaveOnControllerDoesNotRollBack() {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> controller.createUserOnControllerRollback1(form(name)).block())
+				.hasMessageContaining("rollback test");
+
+		assertThat(countUsers(name)).isEqualTo(1);
+	}
+
+	@Test
+	void createUserTwiceCommitsEachUser() {
+		var name = UUID.randomUUID().toString();
+
+		var users = controller.createUserTwice(form(name)).block();
+
+		assertThat(users).extracting(User::getName).containsExactly(name + "_1", name + "_2");
+		assertThat(countUsers(name)).isEqualTo(2);
+	}
+
+	@Test
+	void errorAfterTheFirstTransactionKeepsTheFirstUser() {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> controller.createUserTwiceWithinError(form(name)).block())
+				.hasMessageContaining("rollback test");
+
+		assertThat(countUsers(name)).isEqualTo(1);
+	}
+
+	private static UserForm form(String name) {
+		return new UserForm(name);
+	}
+
+	private long countUsers(String prefix) {
+		return databaseClient.sql("select count(*) from users where name like :prefix")
+				.bind("prefix", prefix + "%")
+				.map(row -> row.get(0, Long.class))
+				.one()
+				.block();
+	}
+
+}
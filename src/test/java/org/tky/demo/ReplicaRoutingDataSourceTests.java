@@ -0,0 +1,82 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// レプリカの代わりにテスト用のDBへの小さなプールを使い、プールが埋まっている場合と接続できない場合の振り分けを確認する
+@SpringBootTest
+class ReplicaRoutingDataSourceTests {
+
+	private static final long CONNECTION_TIMEOUT_MILLIS = 250;
+
+	@Autowired
+	private DataSourceProperties properties;
+
+	@Autowired
+	@Qualifier("readDataSource")
+	private HikariDataSource readDataSource;
+
+	private HikariDataSource replica;
+
+	@AfterEach
+	void closeReplica() {
+		replica.close();
+	}
+
+	@Test
+	void saturatedReplicaFallsBackWithoutBeingMarkedDown() throws Exception {
+		replica = replica(properties.determineUrl());
+		var routing = new ReplicaRoutingDataSource(List.of(replica), readDataSource);
+
+		try (var held = replica.getConnection();
+			 var fallback = routing.getConnection()) {
+			assertThat(fallback.isValid(1)).isTrue();
+			assertThat(replica.getHikariPoolMXBean().getActiveConnections()).isEqualTo(1);
+		}
+
+		// ダウンにはなっていないので、空けば次の接続はまたレプリカから取る
+		try (var connection = routing.getConnection()) {
+			assertThat(replica.getHikariPoolMXBean().getActiveConnections()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void unreachableReplicaIsMarkedDown() throws Exception {
+		replica = replica("jdbc:postgresql://localhost:1/transaction_demo");
+		var routing = new ReplicaRoutingDataSource(List.of(replica), readDataSource);
+
+		try (var fallback = routing.getConnection()) {
+			assertThat(fallback.isValid(1)).isTrue();
+		}
+
+		// ダウンとしたレプリカは試さないので、接続のタイムアウトを待たずにfallbackに接続する
+		long start = System.nanoTime();
+		try (var fallback = routing.getConnection()) {
+			assertThat(fallback.isValid(1)).isTrue();
+		}
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(CONNECTION_TIMEOUT_MILLIS);
+	}
+
+	private HikariDataSource replica(String url) {
+		var dataSource = new HikariDataSource();
+		dataSource.setPoolName("test-replica");
+		dataSource.setJdbcUrl(url);
+		dataSource.setUsername(properties.determineUsername());
+		dataSource.setPassword(properties.determinePassword());
+		dataSource.setMaximumPoolSize(1);
+		dataSource.setConnectionTimeout(CONNECTION_TIMEOUT_MILLIS);
+		dataSource.setInitializationFailTimeout(-1);
+		return dataSource;
+	}
+
+}
@@ -0,0 +1,44 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Tag("replica")
+@ActiveProfiles("replica")
+@SpringBootTest
+class ReplicaRoutingTests {
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void readOnlyTransactionsGoToReplica() {
+		var readOnly = new TransactionTemplate(transactionManager);
+		readOnly.setReadOnly(true);
+
+		assertThat(readOnly.execute(status -> isInRecovery())).isTrue();
+	}
+
+	@Test
+	void writeTransactionsGoToPrimary() {
+		var readWrite = new TransactionTemplate(transactionManager);
+
+		assertThat(readWrite.execute(status -> isInRecovery())).isFalse();
+	}
+
+	private Boolean isInRecovery() {
+		return jdbcTemplate.queryForObject("select pg_is_in_recovery()", Boolean.class);
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// docker compose --profile sharding up で起動したshardを1つずつ増やし、書き込みのスループットを比較する
+@Tag("benchmark")
+class ShardingBenchmarkTest {
+
+	private static final List<String> SHARD_URLS = List.of(
+			"jdbc:postgresql://localhost:25434/transaction_demo?reWriteBatchedInserts=true",
+			"jdbc:postgresql://localhost:25435/transaction_demo?reWriteBatchedInserts=true");
+	private static final int CONCURRENCY = 200;
+	private static final Duration WARMUP = Duration.ofSeconds(10);
+	private static final Duration DURATION = Duration.ofSeconds(30);
+
+	@Test
+	void writeThroughputScalesWithShards() throws Exception {
+		var results = new ArrayList<LoadDriver.Result>();
+		for (int shards = 1; shards <= SHARD_URLS.size() + 1; shards++) {
+			var result = run(shards);
+			System.out.printf("%d shard(s): %s%n", shards, result);
+			results.add(result);
+		}
+		assertThat(results.get(results.size() - 1).throughput()).isGreaterThan(results.get(0).throughput());
+	}
+
+	private LoadDriver.Result run(int shards) throws Exception {
+		var properties = new ArrayList<>(List.of("server.port=0",
+				"server.tomcat.threads.max=" + CONCURRENCY,
+				"demo.bulkhead.enabled=false",
+				"logging.level.org.tky.demo=WARN"));
+		for (int i = 0; i < shards - 1; i++) {
+			properties.add("demo.sharding.shards[" + i + "].url=" + SHARD_URLS.get(i));
+		}
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties(properties.toArray(String[]::new))
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var targets = List.of(LoadDriver.Target.post("/users/create_couple_of_users", "{\"name\":\"benchmark\"}"));
+			LoadDriver.run(baseUri, targets, CONCURRENCY, WARMUP);
+			return LoadDriver.run(baseUri, targets, CONCURRENCY, DURATION);
+		}
+	}
+
+}
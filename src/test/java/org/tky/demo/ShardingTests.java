@@ -0,0 +1,89 @@
+package org.tky.demo;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Tag("sharding")
+@ActiveProfiles("sharding")
+@SpringBootTest
+class ShardingTests {
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private UserCache userCache;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private HikariDataSource primaryDataSource;
+
+	@Autowired
+	private ShardPools shardPools;
+
+	@Test
+	void newUsersAreSpreadAcrossShardsAndFoundById() {
+		var name = UUID.randomUUID().toString();
+		var users = IntStream.range(0, shardPools.shardCount() * 4)
+				.mapToObj(i -> transactionalUserService.createUser(name + "_" + i))
+				.toList();
+
+		assertThat(users).extracting(user -> ShardContext.shardOf(user.getId())).containsAll(IntStream.range(0, shardPools.shardCount()).boxed().toList());
+		for (var user : users) {
+			assertThat(countOnShard(ShardContext.shardOf(user.getId()), user.getName())).isEqualTo(1);
+			userCache.evict(user.getId());
+			assertThat(userRepository.findById(user.getId())).get().extracting(User::getName).isEqualTo(user.getName());
+		}
+	}
+
+	@Test
+	void usersCreatedInOneTransactionShareAShard() {
+		var name = UUID.randomUUID().toString();
+		var users = transactionalUserService.createCoupleOfUsers(name + "_1", name + "_2");
+
+		int shard = ShardContext.shardOf(users.get(0).getId());
+		assertThat(ShardContext.shardOf(users.get(1).getId())).isEqualTo(shard);
+		assertThat(countOnShard(shard, name + "_1") + countOnShard(shard, name + "_2")).isEqualTo(2);
+	}
+
+	@Test
+	void transactionSpanningShardsIsRejected() {
+		var name = UUID.randomUUID().toString();
+		var users = new ArrayList<User>();
+		while (users.stream().map(user -> ShardContext.shardOf(user.getId())).distinct().count() < 2) {
+			users.add(transactionalUserService.createUser(name + "_" + users.size()));
+		}
+		var first = users.get(0);
+		var other = users.stream().filter(user -> ShardContext.shardOf(user.getId()) != ShardContext.shardOf(first.getId())).findFirst().orElseThrow();
+
+		assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+			userRepository.findById(first.getId());
+			userRepository.findById(other.getId());
+		})).isInstanceOf(CrossShardTransactionException.class)
+				.hasMessageContaining("shard " + ShardContext.shardOf(other.getId()));
+	}
+
+	private int countOnShard(int shard, String name) {
+		var dataSource = shard == 0 ? primaryDataSource : shardPools.pools().get(shard - 1);
+		return new JdbcTemplate(dataSource).queryForObject("select count(*) from users where name = ?", Integer.class, name);
+	}
+
+}
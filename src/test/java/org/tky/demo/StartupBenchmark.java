@@ -0,0 +1,138 @@
+package org.tky.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// ./gradlew -PfastStart startupBenchmark -Pstartup.runs=5
+// 起動モード毎にアプリケーションを別プロセスで起動し、最初のリクエストが成功するまでの時間と、その時点のRSSをレポートに出力する。
+public class StartupBenchmark {
+
+	private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+	public static void main(String[] args) throws Exception {
+		var classpath = System.getProperty("startup.classpath");
+		var cdsArchive = System.getProperty("startup.cdsArchive");
+		boolean aot = Boolean.getBoolean("startup.aot");
+		int runs = Integer.getInteger("startup.runs", 5);
+		var reportDir = Path.of(System.getProperty("startup.reportDir", "build/reports/startup"));
+
+		var modes = new LinkedHashMap<String, List<String>>();
+		modes.put("default", List.of());
+		// faststartのうち、起動時にJDBCのメタデータを読まない設定だけを戻したもの。faststart profileとの差がその設定の効果
+		modes.put("faststart + jdbc metadata", List.of("--spring.profiles.active=faststart", "--spring.jpa.properties.hibernate.temp.use_jdbc_metadata_defaults=true"));
+		modes.put("faststart profile", List.of("--spring.profiles.active=faststart"));
+		modes.put("faststart + cds", List.of("-XX:SharedArchiveFile=" + cdsArchive, "--spring.profiles.active=faststart"));
+		if (aot) {
+			modes.put("faststart + aot", List.of("-Dspring.aot.enabled=true", "--spring.profiles.active=faststart"));
+			modes.put("faststart + aot + cds", List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + cdsArchive, "--spring.profiles.active=faststart"));
+		}
+
+		var results = new LinkedHashMap<String, List<Sample>>();
+		for (var mode : modes.entrySet()) {
+			var samples = new ArrayList<Sample>();
+			for (int run = 0; run < runs; run++) {
+				samples.add(start(classpath, mode.getValue()));
+			}
+			results.put(mode.getKey(), samples);
+		}
+
+		var report = new ByteArrayOutputStream();
+		try (var out = new PrintStream(report, true, StandardCharsets.UTF_8)) {
+			out.printf("runs: %d, aot: %s%n%n", runs, aot);
+			out.printf("%-24s %14s %14s %12s %12s%n", "mode", "p50 first ms", "max first ms", "p50 rss MB", "max rss MB");
+			results.forEach((mode, samples) -> out.printf("%-24s %,14d %,14d %,12d %,12d%n", mode,
+					median(samples.stream().mapToLong(Sample::firstRequestMillis).toArray()),
+					samples.stream().mapToLong(Sample::firstRequestMillis).max().orElse(0),
+					median(samples.stream().mapToLong(Sample::rssMegabytes).toArray()),
+					samples.stream().mapToLong(Sample::rssMegabytes).max().orElse(0)));
+		}
+		Files.createDirectories(reportDir);
+		var file = reportDir.resolve("startup-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".txt");
+		Files.write(file, report.toByteArray());
+		System.out.print(report.toString(StandardCharsets.UTF_8));
+		System.out.println("report: " + file.toAbsolutePath());
+	}
+
+	// "--"で始まるものはアプリケーションの引数、それ以外はJVMのオプションとして渡す
+	private static Sample start(String classpath, List<String> options) throws Exception {
+		int port = freePort();
+		var command = new ArrayList<String>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		options.stream().filter(option -> !option.startsWith("--")).forEach(command::add);
+		command.addAll(List.of("-cp", classpath, "org.tky.demo.DemoApplication", "--server.port=" + port, "--logging.level.root=WARN"));
+		options.stream().filter(option -> option.startsWith("--")).forEach(command::add);
+
+		var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+		var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users?size=1")).build();
+		long start = System.nanoTime();
+		var process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		try {
+			while (true) {
+				if (!process.isAlive()) {
+					throw new IllegalStateException("application exited with " + process.exitValue() + ": " + command);
+				}
+				if (System.nanoTime() - start > TIMEOUT.toNanos()) {
+					throw new IllegalStateException("application did not serve a request within " + TIMEOUT + ": " + command);
+				}
+				try {
+					if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+						break;
+					}
+				} catch (IOException e) {
+					// まだlistenしていない
+				}
+				Thread.sleep(10);
+			}
+			long elapsed = System.nanoTime() - start;
+			return new Sample(elapsed / 1_000_000, rssKilobytes(process.pid()) / 1024);
+		} finally {
+			process.destroy();
+			process.waitFor();
+		}
+	}
+
+	// Linuxのみ。取得できない場合は0
+	private static long rssKilobytes(long pid) throws IOException {
+		var status = Path.of("/proc", Long.toString(pid), "status");
+		if (!Files.exists(status)) {
+			return 0;
+		}
+		for (var line : Files.readAllLines(status)) {
+			if (line.startsWith("VmRSS:")) {
+				return Long.parseLong(line.replaceAll("\\D", ""));
+			}
+		}
+		return 0;
+	}
+
+	private static int freePort() throws IOException {
+		try (var socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static long median(long[] values) {
+		Arrays.sort(values);
+		return values.length == 0 ? 0 : values[values.length / 2];
+	}
+
+	private record Sample(long firstRequestMillis, long rssMegabytes) {
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class TransactionMetricsTests {
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Autowired
+	private AnotherTransactionalService anotherTransactionalService;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void commitIsRecordedAsANewTransaction() {
+		var before = count("TransactionalUserService.createUser", "new", "commit");
+
+		transactionalUserService.createUser(UUID.randomUUID().toString());
+
+		assertThat(count("TransactionalUserService.createUser", "new", "commit")).isEqualTo(before + 1);
+	}
+
+	@Test
+	void rollbackIsRecordedAsANewTransaction() {
+		var before = count("TransactionalUserService.createUserAndError", "new", "rollback");
+
+		assertThatThrownBy(() -> transactionalUserService.createUserAndError(UUID.randomUUID().toString()))
+				.isInstanceOf(RuntimeException.class);
+
+		assertThat(count("TransactionalUserService.createUserAndError", "new", "rollback")).isEqualTo(before + 1);
+	}
+
+	@Test
+	void callInsideATransactionIsRecordedAsJoined() {
+		var joinedBefore = count("AnotherTransactionalService.createUser", "joined", "completed");
+		var newBefore = count("AnotherTransactionalService.createUser", "new", "commit");
+
+		transactionTemplate.executeWithoutResult(status -> anotherTransactionalService.createUser(UUID.randomUUID().toString()));
+
+		assertThat(count("AnotherTransactionalService.createUser", "joined", "completed")).isEqualTo(joinedBefore + 1);
+		assertThat(count("AnotherTransactionalService.createUser", "new", "commit")).isEqualTo(newBefore);
+	}
+
+	@Test
+	void notSupportedInsideATransactionIsRecordedWithoutATransaction() {
+		var noneBefore = count("TransactionalUserService.createUsers", "none", "completed");
+		var joinedBefore = count("TransactionalUserService.createUsers", "joined", "completed");
+		var name = UUID.randomUUID().toString();
+
+		transactionTemplate.executeWithoutResult(status -> transactionalUserService.createUsers(List.of(name + "_1", name + "_2"), 1));
+
+		assertThat(count("TransactionalUserService.createUsers", "none", "completed")).isEqualTo(noneBefore + 1);
+		assertThat(count("TransactionalUserService.createUsers", "joined", "completed")).isEqualTo(joinedBefore);
+	}
+
+	private long count(String method, String propagation, String outcome) {
+		var timer = meterRegistry.find("demo.transaction").tags("method", method, "propagation", propagation, "outcome", outcome).timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.tky.demo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 少数の行を多数のクライアントで同時にrenameし、40001をやり直す場合とやり直さない場合の成功数(goodput)を比較する
+@Tag("benchmark")
+class TransactionRetryBenchmarkTest {
+
+	private static final int HOT_ROWS = 4;
+	private static final int CONCURRENCY = 64;
+	private static final Duration WARMUP = Duration.ofSeconds(5);
+	private static final Duration DURATION = Duration.ofSeconds(20);
+
+	@Test
+	void retriesRaiseGoodputUnderContention() throws Exception {
+		var withoutRetry = run(false);
+		var withRetry = run(true);
+
+		System.out.printf("without retry : %s  goodput %,.0f req/s%n", withoutRetry, goodput(withoutRetry));
+		System.out.printf("with retry    : %s  goodput %,.0f req/s%n", withRetry, goodput(withRetry));
+		assertThat(withRetry.errors()).isLessThan(withoutRetry.errors());
+	}
+
+	private LoadDriver.Result run(boolean retry) throws Exception {
+		try (var context = new SpringApplicationBuilder(DemoApplication.class)
+				.properties("server.port=0",
+						"demo.bulkhead.enabled=false",
+						"demo.transaction-retry.enabled=" + retry,
+						"logging.level.org.tky.demo=ERROR")
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var transactionalUserService = context.getBean(TransactionalUserService.class);
+			var targets = IntStream.range(0, HOT_ROWS)
+					.mapToObj(i -> transactionalUserService.createUser("hot_" + i).getId())
+					.map(id -> LoadDriver.Target.post("/users/" + id + "/rename", "{\"name\":\"renamed\"}"))
+					.toList();
+			LoadDriver.run(baseUri, targets, CONCURRENCY, WARMUP);
+			var result = LoadDriver.run(baseUri, targets, CONCURRENCY, DURATION);
+
+			var meterRegistry = context.getBean(MeterRegistry.class);
+			System.out.printf("retry=%s retries=%.0f giveups=%.0f%n", retry,
+					meterRegistry.find("demo.transaction.retries").counters().stream().mapToDouble(c -> c.count()).sum(),
+					meterRegistry.find("demo.transaction.retry.giveups").counters().stream().mapToDouble(c -> c.count()).sum());
+			return result;
+		}
+	}
+
+	private static double goodput(LoadDriver.Result result) {
+		return (result.requests() - result.errors()) / (double) DURATION.toSeconds();
+	}
+
+}
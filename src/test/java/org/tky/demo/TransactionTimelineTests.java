@@ -0,0 +1,53 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionTimelineTests {
+
+	@Test
+	void groupsEventsByRequest() {
+		var timeline = new TransactionTimeline(16);
+		var service = timeline.nameId("org.tky.demo.TransactionalUserService.createUser");
+
+		long requestId = timeline.startRequest(timeline.nameId(""));
+		timeline.record(TransactionTimeline.EventType.BEGIN, service);
+		timeline.record(TransactionTimeline.EventType.COMMIT, service);
+		timeline.endRequest(timeline.nameId("POST /users/on_transactional_service"));
+
+		assertThat(timeline.requests()).singleElement().satisfies(request -> {
+			assertThat(request.requestId()).isEqualTo(requestId);
+			assertThat(request.endpoint()).isEqualTo("POST /users/on_transactional_service");
+			assertThat(request.events()).extracting(TransactionTimeline.RequestEvent::type)
+					.containsExactly(TransactionTimeline.EventType.BEGIN, TransactionTimeline.EventType.COMMIT);
+		});
+	}
+
+	@Test
+	void keepsOnlyTheLatestEventsWhenWrappingAround() throws Exception {
+		var timeline = new TransactionTimeline(1024);
+		var name = timeline.nameId("method");
+		var start = new CountDownLatch(1);
+		try (var executor = Executors.newFixedThreadPool(4)) {
+			for (int thread = 0; thread < 4; thread++) {
+				executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < 10_000; i++) {
+						timeline.record(TransactionTimeline.EventType.BEGIN, name);
+					}
+					return null;
+				});
+			}
+			start.countDown();
+		}
+
+		var events = timeline.snapshot();
+		assertThat(events).hasSizeLessThanOrEqualTo(1024).allMatch(event -> event.name().equals("method"));
+		assertThat(events.get(events.size() - 1).sequence()).isEqualTo(40_000 - 1);
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.tky.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.transaction.UnexpectedRollbackException;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class UserCacheTests {
+
+	@Autowired
+	private TransactionalUserService transactionalUserService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private CacheManager cacheManager;
+
+	@Test
+	void committedUsersArePutIntoCache() {
+		var name = UUID.randomUUID().toString();
+		var users = transactionalUserService.createCoupleOfUsers(name + "_1", name + "_2");
+
+		users.forEach(user -> assertThat(nativeCache().getIfPresent(user.getId())).isSameAs(user));
+	}
+
+	@Test
+	void rolledBackUsersAreNotCached() {
+		var name = UUID.randomUUID().toString();
+
+		assertThatThrownBy(() -> transactionalUserService.createCoupleOfUsersAndErrorNextServiceAndCatch(name + "_1", name + "_2"))
+				.isInstanceOf(UnexpectedRollbackException.class);
+		assertThatThrownBy(() -> transactionalUserService.createCoupleOfUsersAndErrorNextService(name + "_3", name + "_4"))
+				.isInstanceOf(RuntimeException.class);
+
+		assertThat(nativeCache().asMap().values())
+				.noneMatch(user -> ((User) user).getName().startsWith(name));
+	}
+
+	@Test
+	void findByIdReadsThroughCache() {
+		var user = transactionalUserService.createUser(UUID.randomUUID().toString());
+		nativeCache().invalidate(user.getId());
+
+		var loaded = userRepository.findById(user.getId()).orElseThrow();
+
+		assertThat(nativeCache().getIfPresent(user.getId())).isSameAs(loaded);
+		assertThat(userRepository.findById(user.getId())).containsSame(loaded);
+	}
+
+	private Cache<Object, Object> nativeCache() {
+		var cache = (TransactionAwareCacheDecorator) cacheManager.getCache(UserCache.NAME);
+		return ((CaffeineCache) cache.getTargetCache()).getNativeCache();
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// usersにSEED_ROWS件を投入してGET /users/exportで全件を読み出し、その間の(GC後に残る)old領域の使用量が増えないことを確認する。
+// エンティティやレスポンス全体をヒープに載せていれば、出力サイズに比例して増える。
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"logging.level.org.tky.demo=WARN", "demo.outbox.relay.enabled=false"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UserExportBenchmarkTest {
+
+	private static final int SEED_ROWS = 3_000_000;
+	private static final String SEED_PREFIX = "export_seed_";
+	private static final long MAX_OLD_GEN_GROWTH = 32 * 1024 * 1024;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@LocalServerPort
+	private int port;
+
+	@BeforeAll
+	void seed() {
+		jdbcTemplate.update("insert into users (name) select '" + SEED_PREFIX + "' || md5(i::text) from generate_series(1, ?) i", SEED_ROWS);
+	}
+
+	// 投入したユーザーと、triggerでoutboxに書かれたそのイベントを消す(relayは止めているので送られずに残っている)
+	@AfterAll
+	void cleanUp() {
+		jdbcTemplate.update("""
+				with deleted as (delete from users where name like ? returning id)
+				delete from outbox where aggregate_type = 'user' and aggregate_id in (select id from deleted)""", SEED_PREFIX + "%");
+	}
+
+	@Test
+	void exportKeepsHeapFlat() throws Exception {
+		export("/users/export", false);
+	}
+
+	@Test
+	void gzipExportKeepsHeapFlat() throws Exception {
+		export("/users/export?gzip=true", true);
+	}
+
+	private void export(String path, boolean gzip) throws Exception {
+		long expectedRows = jdbcTemplate.queryForObject("select count(*) from users", Long.class);
+		System.gc();
+		long baseline = oldGenUsed();
+		var peak = new AtomicLong(baseline);
+		var client = HttpClient.newHttpClient();
+		var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+
+		long start = System.nanoTime();
+		long lines;
+		long bytes;
+		try (var sampler = Executors.newSingleThreadScheduledExecutor()) {
+			sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(oldGenUsed(), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+			var response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+			assertThat(response.statusCode()).isEqualTo(200);
+			var counted = new CountingInputStream(response.body());
+			try (var body = gzip ? new GZIPInputStream(counted) : counted) {
+				lines = countLines(body);
+			}
+			bytes = counted.count;
+			sampler.shutdown();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		long growth = peak.get() - baseline;
+
+		System.out.printf("%-24s %,d rows, %,d bytes in %,d ms, old gen growth %,d KB%n", path, lines - 1, bytes, elapsedMillis, growth / 1024);
+		// 1行目はヘッダ
+		assertThat(lines - 1).isEqualTo(expectedRows);
+		assertThat(growth).isLessThan(MAX_OLD_GEN_GROWTH);
+	}
+
+	private static long oldGenUsed() {
+		return ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP && (pool.getName().contains("Old") || pool.getName().contains("Tenured")))
+				.mapToLong(pool -> pool.getUsage().getUsed())
+				.sum();
+	}
+
+	private static long countLines(InputStream in) throws IOException {
+		var buffer = new byte[64 * 1024];
+		long lines = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				if (buffer[i] == '\n') {
+					lines++;
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static final class CountingInputStream extends InputStream {
+		private final InputStream in;
+		private long count;
+
+		private CountingInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 少数の行の範囲を書き出して、ヘッダとCSVの各行を確認する。大量の行でのメモリ使用量はUserExportBenchmarkTest
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "demo.bulkhead.enabled=false")
+class UserExportTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void exportWritesTheHeaderAndEveryRowInTheRange() {
+		var range = insertUsers();
+
+		var response = restTemplate.getForEntity("/users/export?from_id={from}&to_id={to}", byte[].class, range[0], range[1]);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getContentType().isCompatibleWith(MediaType.parseMediaType("text/csv"))).isTrue();
+		assertRows(new String(response.getBody(), StandardCharsets.UTF_8), range);
+	}
+
+	@Test
+	void gzipExportWritesTheSameRows() throws Exception {
+		var range = insertUsers();
+
+		var response = restTemplate.getForEntity("/users/export?gzip=true&from_id={from}&to_id={to}", byte[].class, range[0], range[1]);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getContentType().isCompatibleWith(MediaType.parseMediaType("application/gzip"))).isTrue();
+		try (var in = new GZIPInputStream(new ByteArrayInputStream(response.getBody()))) {
+			assertRows(new String(in.readAllBytes(), StandardCharsets.UTF_8), range);
+		}
+	}
+
+	// CSVでクォートが必要な名前を含めて3件作り、そのidの範囲を返す
+	private long[] insertUsers() {
+		var name = UUID.randomUUID().toString();
+		for (var suffix : List.of("_plain", "_with,comma", "_with\"quote")) {
+			jdbcTemplate.update("insert into users (name) values (?)", name + suffix);
+		}
+		var ids = jdbcTemplate.queryForList("select id from users where name like ? order by id", Long.class, name + "%");
+		assertThat(ids).hasSize(3);
+		return new long[]{ids.get(0), ids.get(2)};
+	}
+
+	// COPYの出力はid順とは限らないので、行の集合で比べる
+	private void assertRows(String csv, long[] range) {
+		var lines = csv.split("\n");
+		assertThat(lines[0]).isEqualTo("id,name");
+		var expected = jdbcTemplate.query("select id, name from users where id between ? and ?",
+				(rs, rowNum) -> rs.getLong("id") + "," + csvValue(rs.getString("name")), range[0], range[1]);
+		assertThat(Arrays.asList(lines).subList(1, lines.length)).containsExactlyInAnyOrderElementsOf(expected);
+	}
+
+	private static String csvValue(String value) {
+		return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+	}
+
+}
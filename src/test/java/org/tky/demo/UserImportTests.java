@@ -0,0 +1,83 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class UserImportTests {
+
+	@Autowired
+	private UserImportService userImportService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void badRowInTheMiddleRollsBackTheWholeImport() {
+		var name = UUID.randomUUID().toString();
+		// 1000行目だけnameの長さの制約に違反する
+		var body = IntStream.range(0, 2000)
+				.mapToObj(i -> "{\"name\":\"" + (i == 1000 ? "x".repeat(256) : name + "_" + i) + "\"}\n")
+				.collect(Collectors.joining());
+
+		assertThatThrownBy(() -> userImportService.importNdjson(name, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))))
+				.isInstanceOf(SQLException.class);
+		assertThat(jdbcTemplate.queryForObject("select count(*) from users where name like ?", Integer.class, name + "%")).isZero();
+		assertThat(userImportService.progress()).isEmpty();
+	}
+
+	@Test
+	void csvRowsAreCountedByRecordNotByLine() throws Exception {
+		var name = UUID.randomUUID().toString();
+		var body = "name\n" + name + "_1\n\"" + name + "_2\nsecond line\"\n\"" + name + "_3 \"\"quoted\"\"\"\n";
+
+		var result = userImportService.importCsv(name, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), true);
+
+		assertThat(result.rows()).isEqualTo(3);
+		assertThat(jdbcTemplate.queryForList("select name from users where name like ? order by id", String.class, name + "%"))
+				.containsExactly(name + "_1", name + "_2\nsecond line", name + "_3 \"quoted\"");
+
+		// 7バイトずつ送っても、ヘッダとクォート内の改行の後にはidを足さない
+		var out = new ByteArrayOutputStream();
+		var nextId = new long[]{100};
+		var writer = new UserImportService.CsvRecordWriter(out, () -> nextId[0]++, true);
+		var bytes = body.getBytes(StandardCharsets.UTF_8);
+		long written = 0;
+		for (int i = 0; i < bytes.length; i += 7) {
+			var chunk = Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + 7));
+			written += writer.write(chunk, chunk.length);
+		}
+		assertThat(written).isEqualTo(3);
+		assertThat(out.toString(StandardCharsets.UTF_8))
+				.isEqualTo("name\n100," + name + "_1\n101,\"" + name + "_2\nsecond line\"\n102,\"" + name + "_3 \"\"quoted\"\"\"\n");
+	}
+
+	@Test
+	void importedRowsShareIdBlocksInsteadOfUsingOneBlockPerRow() throws Exception {
+		var name = UUID.randomUUID().toString();
+		var body = IntStream.range(0, 2000)
+				.mapToObj(i -> "{\"name\":\"" + name + "_" + i + "\"}\n")
+				.collect(Collectors.joining());
+
+		userImportService.importNdjson(name, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+		// 列のデフォルト値のnextvalだと1行毎にincrement by(50)ずつ進み、範囲は10万近くになる
+		var span = jdbcTemplate.queryForObject("select max(id) - min(id) from users where name like ?", Long.class, name + "%");
+		assertThat(span).isLessThan(4000);
+	}
+
+}
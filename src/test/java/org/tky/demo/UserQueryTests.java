@@ -0,0 +1,84 @@
+package org.tky.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "demo.bulkhead.enabled=false")
+class UserQueryTests {
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Test
+	void invalidPageSizeOrQueryIsABadRequest() {
+		assertThat(restTemplate.getForEntity("/users?size=0", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(restTemplate.getForEntity("/users?size=1001", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(restTemplate.getForEntity("/users/search?q= ", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(restTemplate.getForEntity("/users/search?q=a&size=0", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(restTemplate.getForEntity("/users/search?q=a&page=-1", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	void unknownSearchModeIsABadRequest() {
+		assertThat(restTemplate.getForEntity("/users/search?q=a&mode=exact", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(restTemplate.getForEntity("/users/search?q=a&mode=Fuzzy", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	void cursorPagesContinueWithoutGapsOrDuplicates() {
+		var ids = insertUsers(25);
+		long cursor = ids.get(0) - 1;
+
+		// 7件ずつのページを、nextCursorを辿って最後に作ったユーザーを越えるまで読む
+		var read = new ArrayList<Long>();
+		for (Long next = cursor; next != null && (read.isEmpty() || read.get(read.size() - 1) < ids.get(ids.size() - 1)); ) {
+			var page = restTemplate.getForObject("/users?cursor={cursor}&size=7", UserPage.class, next);
+			assertThat(page.users()).isNotEmpty();
+			page.users().forEach(user -> read.add(user.getId()));
+			next = page.nextCursor();
+		}
+
+		assertThat(read).isSorted().doesNotHaveDuplicates().containsAll(ids);
+		assertThat(read).containsExactlyElementsOf(jdbcTemplate.queryForList(
+				"select id from users where id > ? and id <= ? order by id", Long.class, cursor, read.get(read.size() - 1)));
+	}
+
+	@Test
+	void streamReturnsEveryRowAfterTheCursor() throws Exception {
+		var ids = insertUsers(25);
+		long cursor = ids.get(0) - 1;
+
+		var body = restTemplate.getForObject("/users/stream?cursor={cursor}", String.class, cursor);
+		var streamed = Arrays.stream(objectMapper.readValue(body, User[].class)).map(User::getId).toList();
+
+		assertThat(streamed).containsAll(ids);
+		assertThat(streamed).containsExactlyElementsOf(jdbcTemplate.queryForList("select id from users where id > ? order by id", Long.class, cursor));
+	}
+
+	private List<Long> insertUsers(int count) {
+		var name = UUID.randomUUID().toString();
+		var names = IntStream.range(0, count).mapToObj(i -> new Object[]{name + "_" + i}).toList();
+		jdbcTemplate.batchUpdate("insert into users (name) values (?)", names);
+		return jdbcTemplate.queryForList("select id from users where name like ? order by id", Long.class, name + "%");
+	}
+
+}
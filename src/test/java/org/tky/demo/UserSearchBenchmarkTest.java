@@ -0,0 +1,82 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// usersにSEED_ROWS件を投入し、前方一致・類似度検索の実行計画がV3のインデックスを使っていることと、その応答時間を確認する
+@Tag("benchmark")
+@SpringBootTest(properties = {"logging.level.org.tky.demo=WARN", "demo.outbox.relay.enabled=false"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UserSearchBenchmarkTest {
+
+	private static final int SEED_ROWS = 3_000_000;
+	private static final String SEED_PREFIX = "search_seed_";
+	private static final int ITERATIONS = 200;
+
+	@Autowired
+	private NamedParameterJdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private UserQueryService userQueryService;
+
+	@BeforeAll
+	void seed() {
+		jdbcTemplate.getJdbcTemplate().update("insert into users (name) select '" + SEED_PREFIX + "' || md5(i::text) from generate_series(1, ?) i", SEED_ROWS);
+		jdbcTemplate.getJdbcTemplate().execute("analyze users");
+	}
+
+	// 投入したユーザーと、triggerでoutboxに書かれたそのイベントを消す(relayは止めているので送られずに残っている)
+	@AfterAll
+	void cleanUp() {
+		jdbcTemplate.getJdbcTemplate().update("""
+				with deleted as (delete from users where name like ? returning id)
+				delete from outbox where aggregate_type = 'user' and aggregate_id in (select id from deleted)""", SEED_PREFIX + "%");
+	}
+
+	@Test
+	void prefixSearchUsesBtreeIndex() {
+		var plan = explain(UserRepository.SEARCH_BY_NAME_PREFIX, Map.of("pattern", SEED_PREFIX + "abc%"));
+		System.out.println(plan);
+		assertThat(plan).contains("users_name_prefix_idx").doesNotContain("Seq Scan").doesNotContain("Sort");
+
+		measure("prefix", () -> userQueryService.searchUsers(SEED_PREFIX + "abc", UserSearchMode.PREFIX, 0, 20));
+	}
+
+	@Test
+	void fuzzySearchUsesTrigramIndex() {
+		// md5の一部を1文字変えたもの
+		var plan = explain(UserRepository.SEARCH_BY_NAME_SIMILARITY, Map.of("query", SEED_PREFIX + "c4ca4238a0b923820dcc509a6f75849c"));
+		System.out.println(plan);
+		assertThat(plan).contains("users_name_trgm_idx").doesNotContain("Seq Scan");
+
+		measure("fuzzy", () -> userQueryService.searchUsers(SEED_PREFIX + "c4ca4238a0b923820dcc509a6f75849c", UserSearchMode.FUZZY, 0, 20));
+	}
+
+	private String explain(String sql, Map<String, ?> params) {
+		var rows = jdbcTemplate.queryForList("explain (analyze, buffers) " + sql + " limit 21", params, String.class);
+		return String.join("\n", rows);
+	}
+
+	private static void measure(String name, Supplier<UserSearchPage> search) {
+		for (int i = 0; i < ITERATIONS; i++) {
+			search.get();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertThat(search.get().users()).isNotEmpty();
+		}
+		System.out.printf("%-6s search: %,8.2f ms/query over %,d rows%n", name, (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS, SEED_ROWS);
+	}
+
+}
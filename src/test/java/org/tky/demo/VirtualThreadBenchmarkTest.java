@@ -0,0 +1,50 @@
+package org.tky.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+@Tag("benchmark")
+class VirtualThreadBenchmarkTest {
+
+	private static final int CONCURRENCY = 400;
+	private static final Duration WARMUP = Duration.ofSeconds(10);
+	private static final Duration DURATION = Duration.ofSeconds(30);
+
+	@Test
+	void comparePlatformAndVirtualThreads() throws Exception {
+		var platform = run(false);
+		var virtual = run(true);
+
+		System.out.printf("platform threads : %s%n", platform);
+		System.out.printf("virtual threads  : %s%n", virtual);
+	}
+
+	private LoadDriver.Result run(boolean virtualThreads) throws Exception {
+		var builder = new SpringApplicationBuilder(DemoApplication.class);
+		if (virtualThreads) {
+			builder.profiles("virtual");
+		}
+		try (var context = builder
+				.properties("server.port=0",
+						"demo.bulkhead.enabled=false",
+						"spring.datasource.hikari.maximum-pool-size=20",
+						"logging.level.org.tky.demo=WARN")
+				.run()) {
+			var baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/");
+			var seeded = context.getBean(TransactionalUserService.class).createUser("benchmark");
+			var targets = List.of(
+					LoadDriver.Target.get("/users/" + seeded.getId()),
+					LoadDriver.Target.post("/users/on_transactional_service", "{\"name\":\"benchmark\"}"),
+					LoadDriver.Target.post("/users/create_couple_of_users", "{\"name\":\"benchmark\"}"),
+					LoadDriver.Target.get("/users?size=20"));
+			LoadDriver.run(baseUri, targets, CONCURRENCY, WARMUP);
+			return LoadDriver.run(baseUri, targets, CONCURRENCY, DURATION);
+		}
+	}
+
+}